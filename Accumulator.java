@@ -0,0 +1,143 @@
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+// The running total behind PHPArray's array_sum() and array_product().  Like
+// PHP, the result stays an integer while every value is one and nothing
+// overflows: integral values are combined exactly in a long, and only a
+// float value or an overflow makes the result a Double.  Float values are
+// combined in a double, optionally with Neumaier's compensated summation,
+// which carries the low-order bits each addition loses in a second double.
+// Large arrays are reduced by a fork-join task per range of positions on the
+// common pool, whose partial results merge in order.
+final class Accumulator {
+	private static final int MIN_GRAIN = 1 << 14; // smallest range a parallel reduction hands to one task
+
+	private final boolean product;
+	private final boolean compensated;
+	private long exact; // the integral values combined so far
+	private double inexact; // the float values, and integral ones that overflowed
+	private double compensation; // what the additions to inexact lost
+	private boolean floating; // the result is a Double
+
+	Accumulator(boolean product, boolean compensated) {
+		this.product = product;
+		this.compensated = compensated;
+		exact = product ? 1 : 0;
+		inexact = product ? 1.0 : 0.0;
+	}
+
+	// combine the non-null values in vals[lo..hi), in parallel if there are
+	// at least parallelThreshold positions; throws ClassCastException if one
+	// is not a Number
+	static Accumulator reduce(Object[] vals, int lo, int hi, boolean product, boolean compensated,
+			int parallelThreshold) {
+		int threads = ForkJoinPool.getCommonPoolParallelism();
+		if (hi - lo < parallelThreshold || threads < 2)
+			return new Accumulator(product, compensated).addAll(vals, lo, hi);
+		int grain = Math.max(MIN_GRAIN, (hi - lo) / (4 * threads));
+		return ForkJoinPool.commonPool().invoke(new ReduceTask(vals, lo, hi, product, compensated, grain));
+	}
+
+	// reduces its two halves in parallel, then merges them
+	@SuppressWarnings("serial")
+	private static final class ReduceTask extends RecursiveTask<Accumulator> {
+		private final Object[] vals;
+		private final int lo, hi, grain;
+		private final boolean product, compensated;
+
+		ReduceTask(Object[] vals, int lo, int hi, boolean product, boolean compensated, int grain) {
+			this.vals = vals;
+			this.lo = lo;
+			this.hi = hi;
+			this.product = product;
+			this.compensated = compensated;
+			this.grain = grain;
+		}
+
+		protected Accumulator compute() {
+			if (hi - lo <= grain)
+				return new Accumulator(product, compensated).addAll(vals, lo, hi);
+			int mid = (lo + hi) >>> 1;
+			ReduceTask left = new ReduceTask(vals, lo, mid, product, compensated, grain);
+			left.fork();
+			Accumulator right = new ReduceTask(vals, mid, hi, product, compensated, grain).compute();
+			return left.join().merge(right);
+		}
+	}
+
+	private Accumulator addAll(Object[] vals, int lo, int hi) {
+		for (int p = lo; p < hi; p++) {
+			if (vals[p] != null)
+				add((Number) vals[p]);
+		}
+		return this;
+	}
+
+	void add(Number value) {
+		if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte)
+			addExact(value.longValue());
+		else {
+			addInexact(value.doubleValue());
+			floating = true;
+		}
+	}
+
+	// fold other, which covers the values after these, into this
+	Accumulator merge(Accumulator other) {
+		addExact(other.exact);
+		if (product) {
+			inexact *= other.inexact;
+		} else {
+			addInexact(other.inexact);
+			compensation += other.compensation;
+		}
+		floating |= other.floating;
+		return this;
+	}
+
+	// an integer if every value was one and nothing overflowed, a Double
+	// otherwise; this ends the accumulation
+	Number result() {
+		if (!floating)
+			return exact;
+		addInexact(exact);
+		return inexact + compensation;
+	}
+
+	private void addExact(long x) {
+		if (product) {
+			long r = exact * x;
+			if (Math.multiplyHigh(exact, x) == r >> 63) {
+				exact = r;
+				return;
+			}
+			// overflowed: what there is so far goes on as a float
+			inexact *= exact;
+		} else {
+			long r = exact + x;
+			if (((exact ^ r) & (x ^ r)) >= 0) {
+				exact = r;
+				return;
+			}
+			addInexact(exact);
+		}
+		exact = x;
+		floating = true;
+	}
+
+	private void addInexact(double x) {
+		if (product) {
+			inexact *= x;
+			return;
+		}
+		double sum = inexact + x;
+		if (compensated) {
+			// Neumaier: recover the bits the smaller operand lost in sum
+			if (Math.abs(inexact) >= Math.abs(x))
+				compensation += (inexact - sum) + x;
+			else
+				compensation += (x - sum) + inexact;
+		}
+		inexact = sum;
+	}
+}
@@ -11,6 +11,23 @@ import java.util.*;
  */
 public class Assig2
 {
+	// PHPArray no longer prints anything itself.  This listener reproduces the
+	// resize and rehash lines shown in the sample output.
+	private static final PHPArrayListener TRACE = new PHPArrayListener()
+	{
+		public void onResize(int size, int oldCapacity, int newCapacity)
+		{
+			if (newCapacity > oldCapacity)
+				System.out.println("           " + "Size: " + size + " -- resizing array from " + oldCapacity + " to " + newCapacity);
+		}
+
+		public void onRehash(String key)
+		{
+			System.out.println("           " + "key " + key + " rehashed...");
+			System.out.println();
+		}
+	};
+
 	public static void main(String [] args)
 	{
 		// Declare the object.  Note that the parameterized type is for the data.
@@ -20,6 +37,7 @@ public class Assig2
 		// are done.  The parameter in the constructor is the initial size of the hash
 		// table.
 		PHPArray<Integer> A = new PHPArray<Integer>(15);
+		A.setListener(TRACE);
 
 		// Put some data into the PHPArray.  This should hash the data using linear
 		// probing and also maintain the data in a linked list, organized by the order
@@ -185,6 +203,7 @@ public class Assig2
 		// Parameterized type should work with a different base type
 		System.out.println("\tUsing a different base type");
 		PHPArray<String> B = new PHPArray<String>(4);
+		B.setListener(TRACE);
 		String [] actor = {"Elwes", "Patinkin", "Wright", "Shawn", "Sarandon",
 							"Andre", "Guest", "Crystal"};
 		String [] role = {"Westley", "Inigo", "Buttercup", "Vizzini", "Humperdinck",
@@ -221,6 +240,7 @@ public class Assig2
 		// Now make another PHPArray, this time of StringBuilder, which is mutable but
 		// not Comparable
 		PHPArray<StringBuilder> C = new PHPArray<StringBuilder>(4);
+		C.setListener(TRACE);
 		B.reset();
 		while ((currB = B.each()) != null)
 		{
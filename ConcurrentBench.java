@@ -0,0 +1,140 @@
+import java.util.*;
+import java.util.concurrent.*;
+
+/**  Throughput of ConcurrentPHPArray with 1, 4 and 16 threads against a
+ * PHPArray behind one lock.  Every thread runs the same mix over a shared
+ * set of keys, mostly get() with some put() and unset(), for a fixed number
+ * of operations; the table reports operations per second over all threads.
+ * The tables start filled so that the mix keeps their size about steady.
+ *
+ * Usage: java ConcurrentBench [ops per thread] [keys] [percent writes]
+ */
+public class ConcurrentBench
+{
+	private static final int[] THREADS = {1, 4, 16};
+	private static final int ROUNDS = 3; // best of, after one warmup
+
+	// the operations the benchmark needs from either table
+	private interface Table
+	{
+		Integer get(String key);
+		void put(String key, Integer val);
+		void unset(String key);
+	}
+
+	public static void main(String [] args) throws Exception
+	{
+		int ops = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+		int keys = args.length > 1 ? Integer.parseInt(args[1]) : 100000;
+		int writes = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+		String[] names = new String[keys];
+		for (int k = 0; k < keys; k++)
+			names[k] = "key" + k;
+
+		System.out.println(ops + " ops per thread over " + keys + " keys, " + writes + "% writes");
+		System.out.printf("%8s %20s %20s%n", "threads", "ConcurrentPHPArray", "locked PHPArray");
+		for (int threads : THREADS)
+		{
+			double concurrent = 0, locked = 0;
+			for (int round = 0; round <= ROUNDS; round++)
+			{
+				double c = run(concurrentTable(), names, threads, ops, writes);
+				double l = run(lockedTable(), names, threads, ops, writes);
+				if (round > 0)
+				{
+					concurrent = Math.max(concurrent, c);
+					locked = Math.max(locked, l);
+				}
+			}
+			System.out.printf("%8d %15.1f M/s %15.1f M/s%n", threads, concurrent / 1e6, locked / 1e6);
+		}
+	}
+
+	// operations per second over all threads
+	private static double run(Table table, String[] names, int threads, int ops, int writes) throws Exception
+	{
+		for (int k = 0; k < names.length; k += 2)
+			table.put(names[k], k);
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		CountDownLatch start = new CountDownLatch(1);
+		List<Future<Long>> done = new ArrayList<Future<Long>>();
+		for (int t = 0; t < threads; t++)
+		{
+			final long seed = t;
+			done.add(pool.submit(() -> {
+				SplittableRandom r = new SplittableRandom(seed);
+				long hits = 0;
+				start.await();
+				for (int op = 0; op < ops; op++)
+				{
+					String key = names[r.nextInt(names.length)];
+					int c = r.nextInt(100);
+					if (c >= writes)
+					{
+						if (table.get(key) != null)
+							hits++;
+					}
+					else if ((c & 1) == 0)
+						table.put(key, op);
+					else
+						table.unset(key);
+				}
+				return hits;
+			}));
+		}
+		long begin = System.nanoTime();
+		start.countDown();
+		long hits = 0;
+		for (Future<Long> f : done)
+			hits += f.get();
+		long elapsed = System.nanoTime() - begin;
+		pool.shutdown();
+		if (hits < 0)
+			System.out.println(hits);
+		return (double) threads * ops * 1e9 / elapsed;
+	}
+
+	private static Table concurrentTable()
+	{
+		ConcurrentPHPArray<Integer> A = new ConcurrentPHPArray<Integer>();
+		return new Table()
+		{
+			public Integer get(String key)
+			{
+				return A.get(key);
+			}
+
+			public void put(String key, Integer val)
+			{
+				A.put(key, val);
+			}
+
+			public void unset(String key)
+			{
+				A.unset(key);
+			}
+		};
+	}
+
+	private static Table lockedTable()
+	{
+		PHPArray<Integer> A = new PHPArray<Integer>(4);
+		return new Table()
+		{
+			public synchronized Integer get(String key)
+			{
+				return A.get(key);
+			}
+
+			public synchronized void put(String key, Integer val)
+			{
+				A.put(key, val);
+			}
+
+			public synchronized void unset(String key)
+			{
+				A.unset(key);
+			}
+		};
+	}
+}
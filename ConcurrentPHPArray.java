@@ -0,0 +1,348 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.*;
+import java.util.concurrent.locks.ReentrantLock;
+
+// A PHPArray that many threads can use at once.  The keys are split by hash
+// into segments, each a linear probing table guarded by its own lock, so puts
+// and unsets of keys in different segments don't wait for each other.  get()
+// takes no lock at all: a segment publishes its table and every slot with
+// release writes, and readers follow them with acquire reads.  For the same
+// reason unset() leaves a tombstone instead of shifting keys back, since a
+// shift could move a key past a reader in the middle of its probe.
+//
+// Insertion order is a doubly linked list of the entries guarded by one list
+// lock, always taken after the segment lock.  Iterators walk it without
+// locking and are weakly consistent: they never throw
+// ConcurrentModificationException, return each entry at most once, and may
+// or may not see changes made after they were created.
+public class ConcurrentPHPArray<V> implements Iterable<V> {
+	private static final int INIT_CAPACITY = 4; // slots per segment to start with
+	private static final int DEFAULT_SEGMENTS = 16;
+
+	// an entry; value is null once the key has been unset
+	private static final class Node<V> {
+		final String key;
+		final int hash;
+		volatile V value;
+		volatile Node<V> next; // next entry in insertion order
+		Node<V> prev; // previous entry in insertion order, guarded by listLock
+
+		Node(String key, int hash, V value) {
+			this.key = key;
+			this.hash = hash;
+			this.value = value;
+		}
+	}
+
+	// marks a slot whose key was unset
+	private static final Node<Object> TOMBSTONE = new Node<Object>(null, 0, null);
+
+	private static final VarHandle SLOT = MethodHandles.arrayElementVarHandle(Node[].class);
+
+	// a linear probing table for the keys whose hash selects it
+	private static final class Segment<V> {
+		final ReentrantLock lock = new ReentrantLock(); // held by writers of this segment
+		volatile Node<V>[] table; // replaced whole when it grows
+		volatile int count; // live keys, written under the lock
+		int tombstones; // TOMBSTONE slots in table
+
+		Segment(int capacity) {
+			table = newTable(capacity);
+		}
+
+		// the node for key, null if it is not in the table; takes no lock
+		@SuppressWarnings("unchecked")
+		Node<V> find(String key, int h) {
+			Node<V>[] t = table;
+			int mask = t.length - 1;
+			for (int i = h & mask;; i = (i + 1) & mask) {
+				Node<V> n = (Node<V>) SLOT.getAcquire(t, i);
+				if (n == null)
+					return null;
+				if (n != TOMBSTONE && n.hash == h && n.key.equals(key))
+					return n;
+			}
+		}
+
+		// re-hash the live nodes into a table of the given size and publish it
+		void rebuild(int capacity) {
+			Node<V>[] t = newTable(capacity);
+			for (Node<V> n : table) {
+				if (n == null || n == TOMBSTONE)
+					continue;
+				int i;
+				for (i = n.hash & (capacity - 1); t[i] != null; i = (i + 1) & (capacity - 1)) {
+				}
+				t[i] = n;
+			}
+			tombstones = 0;
+			table = t;
+		}
+
+		@SuppressWarnings({"unchecked", "rawtypes"})
+		static <V> Node<V>[] newTable(int capacity) {
+			return (Node<V>[]) new Node[capacity];
+		}
+	}
+
+	private final Segment<V>[] segments;
+	private final int segmentShift; // hash >>> segmentShift selects the segment
+	private final ReentrantLock listLock = new ReentrantLock();
+	private volatile Node<V> head; // first entry in insertion order
+	private volatile Node<V> tail; // last entry in insertion order
+
+	// create an empty table with the default number of segments
+	public ConcurrentPHPArray() {
+		this(DEFAULT_SEGMENTS);
+	}
+
+	// create an empty table split into the given number of segments, rounded
+	// up to a power of two; about as many threads as segments can write at once
+	public ConcurrentPHPArray(int concurrencyLevel) {
+		int n = 1;
+		int bits = 0;
+		while (n < concurrencyLevel) {
+			n <<= 1;
+			bits++;
+		}
+		@SuppressWarnings({"unchecked", "rawtypes"})
+		Segment<V>[] temp = (Segment<V>[]) new Segment[n];
+		segments = temp;
+		for (int s = 0; s < n; s++)
+			segments[s] = new Segment<V>(INIT_CAPACITY);
+		segmentShift = 32 - bits;
+	}
+
+	// insert the key-value pair into the symbol table
+	public void put(String key, V val) {
+		if (val == null) {
+			unset(key);
+			return;
+		}
+		int h = Hashing.spread(key.hashCode());
+		Segment<V> seg = segmentFor(h);
+		seg.lock.lock();
+		try {
+			Node<V> old = seg.find(key, h);
+			if (old != null) {
+				old.value = val;
+				return;
+			}
+
+			// double the segment once it is half full, purge tombstones
+			// before they crowd out the empty slots
+			Node<V>[] t = seg.table;
+			if (seg.count >= t.length / 2)
+				seg.rebuild(2 * t.length);
+			else if (seg.count + seg.tombstones >= t.length * 3 / 4)
+				seg.rebuild(t.length);
+			t = seg.table;
+
+			int mask = t.length - 1;
+			int i;
+			for (i = h & mask; t[i] != null && t[i] != TOMBSTONE; i = (i + 1) & mask) {
+			}
+			if (t[i] == TOMBSTONE)
+				seg.tombstones--;
+			Node<V> n = new Node<V>(key, h, val);
+			SLOT.setRelease(t, i, n);
+			seg.count++;
+			append(n);
+		} finally {
+			seg.lock.unlock();
+		}
+	}
+
+	public void put(int key, V val) {
+		put(Integer.toString(key), val);
+	}
+
+	// return the value associated with the given key, null if no such value
+	public V get(String key) {
+		int h = Hashing.spread(key.hashCode());
+		Node<V> n = segmentFor(h).find(key, h);
+		return n == null ? null : n.value;
+	}
+
+	public V get(int key) {
+		return get(Integer.toString(key));
+	}
+
+	// does a key-value pair with the given key exist in the symbol table?
+	public boolean contains(String key) {
+		return get(key) != null;
+	}
+
+	// delete the key (and associated value) from the symbol table
+	public void unset(String key) {
+		int h = Hashing.spread(key.hashCode());
+		Segment<V> seg = segmentFor(h);
+		seg.lock.lock();
+		try {
+			Node<V>[] t = seg.table;
+			int mask = t.length - 1;
+			for (int i = h & mask; t[i] != null; i = (i + 1) & mask) {
+				Node<V> n = t[i];
+				if (n != TOMBSTONE && n.hash == h && n.key.equals(key)) {
+					SLOT.setRelease(t, i, TOMBSTONE);
+					seg.tombstones++;
+					seg.count--;
+					n.value = null;
+					unlink(n);
+					return;
+				}
+			}
+		} finally {
+			seg.lock.unlock();
+		}
+	}
+
+	public void unset(int key) {
+		unset(Integer.toString(key));
+	}
+
+	// return the number of key-value pairs; only exact when no thread is
+	// changing the table
+	public int length() {
+		int n = 0;
+		for (Segment<V> seg : segments)
+			n += seg.count;
+		return n;
+	}
+
+	// remove every key-value pair
+	public void clear() {
+		for (Segment<V> seg : segments)
+			seg.lock.lock();
+		try {
+			for (Segment<V> seg : segments) {
+				for (Node<V> n : seg.table) {
+					if (n != null)
+						n.value = null;
+				}
+				seg.table = Segment.newTable(INIT_CAPACITY);
+				seg.count = 0;
+				seg.tombstones = 0;
+			}
+			listLock.lock();
+			try {
+				head = null;
+				tail = null;
+			} finally {
+				listLock.unlock();
+			}
+		} finally {
+			for (Segment<V> seg : segments)
+				seg.lock.unlock();
+		}
+	}
+
+	// iterate over the values in insertion order, weakly consistent
+	public Iterator<V> iterator() {
+		return new Iterator<V>() {
+			private Node<V> current;
+			private V value;
+
+			{
+				seek(head);
+			}
+
+			public boolean hasNext() {
+				return current != null;
+			}
+
+			public V next() {
+				if (current == null)
+					throw new NoSuchElementException();
+				V result = value;
+				advance();
+				return result;
+			}
+
+			private void advance() {
+				seek(current.next);
+			}
+
+			// move to the first node from n on that is still live, keeping the
+			// value that showed it live in case it is unset before next()
+			// returns it
+			private void seek(Node<V> n) {
+				for (current = n; current != null; current = current.next) {
+					value = current.value;
+					if (value != null)
+						return;
+				}
+			}
+		};
+	}
+
+	// returns an array list that contains all keys in insertion order
+	public ArrayList<String> keys() {
+		ArrayList<String> list = new ArrayList<String>();
+		for (Node<V> n = head; n != null; n = n.next) {
+			if (n.value != null)
+				list.add(n.key);
+		}
+		return list;
+	}
+
+	// returns an array list that contains all values in insertion order
+	public ArrayList<V> values() {
+		ArrayList<V> list = new ArrayList<V>();
+		for (V v : this)
+			list.add(v);
+		return list;
+	}
+
+	// return an array list of the key-value pairs in insertion order
+	public ArrayList<PHPArray.Pair<V>> pairs() {
+		ArrayList<PHPArray.Pair<V>> list = new ArrayList<PHPArray.Pair<V>>();
+		for (Node<V> n = head; n != null; n = n.next) {
+			V v = n.value;
+			if (v != null)
+				list.add(new PHPArray.Pair<V>(n.key, v));
+		}
+		return list;
+	}
+
+	// link n at the tail of insertion order
+	private void append(Node<V> n) {
+		listLock.lock();
+		try {
+			n.prev = tail;
+			if (tail == null)
+				head = n;
+			else
+				tail.next = n;
+			tail = n;
+		} finally {
+			listLock.unlock();
+		}
+	}
+
+	// take n out of insertion order; n keeps its next link so an iterator
+	// standing on it can still move on
+	private void unlink(Node<V> n) {
+		listLock.lock();
+		try {
+			Node<V> prev = n.prev;
+			Node<V> next = n.next;
+			if (prev == null)
+				head = next;
+			else
+				prev.next = next;
+			if (next == null)
+				tail = prev;
+			else
+				next.prev = prev;
+		} finally {
+			listLock.unlock();
+		}
+	}
+
+	private Segment<V> segmentFor(int h) {
+		// the high bits pick the segment, the low bits the slot within it
+		return segments.length == 1 ? segments[0] : segments[h >>> segmentShift];
+	}
+}
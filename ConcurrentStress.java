@@ -0,0 +1,109 @@
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**  Multi-threaded stress test for ConcurrentPHPArray.  Each writer thread owns
+ * its own keys, so whatever the other threads do, its own view of them must be
+ * exact: every get() returns what it last put, and after it stops the table
+ * holds exactly its last values.  Every value carries its key, so a reader
+ * can tell a stale value from a wrong one.  Meanwhile reader threads keep
+ * iterating: an iterator may miss or include keys changed while it runs, but
+ * must never return null, the same entry twice, or a value stored under
+ * another key.  A key unset and put again while it runs is a new entry, and
+ * may come up twice with different values.
+ *
+ * Usage: java ConcurrentStress [writers] [ops per writer]
+ */
+public class ConcurrentStress
+{
+	private static final int KEYS = 2000; // keys owned by each writer
+	private static final int READERS = 2;
+
+	public static void main(String [] args) throws Exception
+	{
+		int writers = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+		int ops = args.length > 1 ? Integer.parseInt(args[1]) : 400000;
+		final ConcurrentPHPArray<String> A = new ConcurrentPHPArray<String>();
+		final AtomicBoolean stop = new AtomicBoolean();
+		ExecutorService pool = Executors.newFixedThreadPool(writers + READERS, r -> {
+			Thread t = new Thread(r);
+			t.setDaemon(true);
+			return t;
+		});
+
+		List<Future<?>> work = new ArrayList<Future<?>>();
+		for (int t = 0; t < writers; t++)
+		{
+			final int id = t;
+			work.add(pool.submit(() -> {
+				Random r = new Random(id);
+				Map<String, String> mine = new HashMap<String, String>();
+				for (int op = 0; op < ops; op++)
+				{
+					String key = id + ":" + r.nextInt(KEYS);
+					if (r.nextInt(3) > 0)
+					{
+						String val = key + "=" + op;
+						A.put(key, val);
+						mine.put(key, val);
+					}
+					else
+					{
+						A.unset(key);
+						mine.remove(key);
+					}
+					check(Objects.equals(A.get(key), mine.get(key)), "writer " + id + " sees a wrong value for " + key);
+				}
+				for (Map.Entry<String, String> e : mine.entrySet())
+					check(e.getValue().equals(A.get(e.getKey())), "writer " + id + " lost " + e.getKey());
+				for (int k = 0; k < KEYS; k++)
+				{
+					String key = id + ":" + k;
+					check(mine.containsKey(key) == A.contains(key), "writer " + id + " finds " + key + " wrongly");
+				}
+				return null;
+			}));
+		}
+
+		List<Future<Long>> readers = new ArrayList<Future<Long>>();
+		for (int t = 0; t < READERS; t++)
+		{
+			readers.add(pool.submit(() -> {
+				long passes = 0;
+				while (!stop.get())
+				{
+					Set<String> seen = new HashSet<String>();
+					for (String val : A)
+					{
+						check(val != null, "iterator returned null");
+						check(seen.add(val), "iterator returned " + val + " twice");
+					}
+					for (PHPArray.Pair<String> pair : A.pairs())
+						check(pair.value.startsWith(pair.key + "="), "pair " + pair.key + " holds " + pair.value);
+					passes++;
+				}
+				return passes;
+			}));
+		}
+
+		for (Future<?> f : work)
+			f.get();
+		stop.set(true);
+		long passes = 0;
+		for (Future<Long> f : readers)
+			passes += f.get();
+		pool.shutdown();
+
+		Set<String> keys = new HashSet<String>(A.keys());
+		check(keys.size() == A.keys().size(), "keys() has duplicates");
+		check(keys.size() == A.length(), "length " + A.length() + " but " + keys.size() + " keys");
+		System.out.println("ConcurrentStress: " + writers + " writers x " + ops + " ops, " + passes
+				+ " reader passes, " + A.length() + " keys left");
+	}
+
+	private static void check(boolean ok, String message)
+	{
+		if (!ok)
+			throw new AssertionError(message);
+	}
+}
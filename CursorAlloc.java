@@ -0,0 +1,87 @@
+import java.lang.management.ManagementFactory;
+import java.util.function.LongSupplier;
+
+/**  Checks that walking a PHPArray with a Cursor allocates a constant number
+ * of objects however many entries it visits.  The bytes the walking thread
+ * allocates are read from com.sun.management.ThreadMXBean around a walk of 1M
+ * entries and around a walk of 1K entries; the two must match to within a
+ * few objects.  pairs(), which makes a Pair per entry, is measured the same
+ * way for contrast.
+ *
+ * Usage: java CursorAlloc [entries]
+ */
+public class CursorAlloc
+{
+	private static final long SLACK = 256; // bytes of noise allowed between the walks
+	private static final int WARMUP = 20;
+	private static volatile long sink; // keeps the walks from being optimized away
+
+	private static final com.sun.management.ThreadMXBean THREADS =
+			(com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+	public static void main(String [] args)
+	{
+		int n = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+		if (!THREADS.isThreadAllocatedMemorySupported())
+		{
+			System.out.println("CursorAlloc: this JVM does not count allocated bytes per thread");
+			return;
+		}
+		THREADS.setThreadAllocatedMemoryEnabled(true);
+
+		PHPArray<Integer> hashed = new PHPArray<Integer>(n);
+		PHPArray<Integer> packed = new PHPArray<Integer>(n);
+		PHPArray<Integer> small = new PHPArray<Integer>(1000);
+		for (int i = 0; i < n; i++)
+		{
+			hashed.put("key" + i, i);
+			packed.put(i, i);
+		}
+		for (int i = 0; i < 1000; i++)
+			small.put("key" + i, i);
+
+		for (int round = 0; round < WARMUP; round++)
+			sink += walkKeys(hashed) + walkValues(packed) + walkKeys(small);
+
+		long big = allocated(() -> walkKeys(hashed));
+		long few = allocated(() -> walkKeys(small));
+		long values = allocated(() -> walkValues(packed));
+		long pairs = allocated(() -> hashed.pairs().size());
+		System.out.println("cursor over " + n + " hashed entries, key() and value(): " + big + " bytes");
+		System.out.println("cursor over 1000 hashed entries, key() and value(): " + few + " bytes");
+		System.out.println("cursor over " + n + " packed entries, value(): " + values + " bytes");
+		System.out.println("pairs() over " + n + " hashed entries: " + pairs + " bytes");
+		if (Math.abs(big - few) > SLACK || Math.abs(values - few) > SLACK)
+			throw new AssertionError("a Cursor walk allocates in proportion to the entries it visits");
+		System.out.println("CursorAlloc: constant allocation");
+	}
+
+	// bytes the calling thread allocates running walk
+	private static long allocated(LongSupplier walk)
+	{
+		long id = Thread.currentThread().threadId();
+		long before = THREADS.getThreadAllocatedBytes(id);
+		sink += walk.getAsLong();
+		long after = THREADS.getThreadAllocatedBytes(id);
+		return after - before;
+	}
+
+	private static long walkKeys(PHPArray<Integer> A)
+	{
+		long sum = 0;
+		PHPArray<Integer>.Cursor c = A.cursor();
+		while (c.next())
+			sum += c.key().length() + c.value();
+		return sum;
+	}
+
+	// key() of a packed array makes its String, so only the values are read
+	private static long walkValues(PHPArray<Integer> A)
+	{
+		long sum = 0;
+		PHPArray<Integer>.Cursor c = A.cursor();
+		while (c.next())
+			sum += c.value();
+		return sum;
+	}
+}
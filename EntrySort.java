@@ -0,0 +1,229 @@
+import java.util.Comparator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+// The sorting kernel behind PHPArray's sort functions.  It sorts the items
+// being compared (values or keys) with the entry position of each carried
+// along in a parallel int array, so one merge sort serves every ordering and
+// the entry arrays are rearranged only once, afterwards.  Merging walks both
+// arrays sequentially, which keeps the comparisons out of the cache misses
+// that chasing positions into the entry arrays would cost.  The sort is
+// stable, like PHP's since 8.0: items that compare equal keep their order.
+// Large ranges are sorted by a fork-join merge sort on the common pool, or
+// on the caller's own pool when it is already running in one.
+//
+// ksort() on keys that are all ints or all byte-sized strings doesn't compare
+// at all: radixSort() distributes them by their bytes, or their chars, into
+// buckets instead.
+final class EntrySort {
+	private static final int INSERTION_THRESHOLD = 32; // ranges this short are insertion sorted
+	private static final int MIN_GRAIN = 1 << 13; // smallest range a parallel sort hands to one task
+	private static final int MAX_RADIX_DEPTH = 64; // string radix sort compares past this many chars
+
+	private EntrySort() {
+	}
+
+	// sort items[lo..hi) and the positions alongside them, in parallel if
+	// the range has at least parallelThreshold items
+	static <T> void sort(T[] items, int[] pos, int lo, int hi, Comparator<? super T> order, int parallelThreshold) {
+		@SuppressWarnings("unchecked")
+		T[] itemBuf = (T[]) new Object[hi - lo];
+		int[] posBuf = new int[hi - lo];
+		ForkJoinPool pool = ForkJoinTask.inForkJoinPool() ? ForkJoinTask.getPool() : ForkJoinPool.commonPool();
+		int threads = pool.getParallelism();
+		if (hi - lo < parallelThreshold || threads < 2) {
+			sort(items, pos, itemBuf, posBuf, lo, hi, lo, order);
+			return;
+		}
+		// a few tasks per thread, so a slow one doesn't hold up the rest
+		int grain = Math.max(MIN_GRAIN, (hi - lo) / (4 * threads));
+		pool.invoke(new SortTask<T>(items, pos, itemBuf, posBuf, lo, hi, lo, order, grain));
+	}
+
+	// sorts its two halves in parallel, then merges them
+	@SuppressWarnings("serial")
+	private static final class SortTask<T> extends RecursiveAction {
+		private final T[] items;
+		private final int[] pos;
+		private final T[] itemBuf;
+		private final int[] posBuf;
+		private final int lo, hi, base, grain;
+		private final Comparator<? super T> order;
+
+		SortTask(T[] items, int[] pos, T[] itemBuf, int[] posBuf, int lo, int hi, int base,
+				Comparator<? super T> order, int grain) {
+			this.items = items;
+			this.pos = pos;
+			this.itemBuf = itemBuf;
+			this.posBuf = posBuf;
+			this.lo = lo;
+			this.hi = hi;
+			this.base = base;
+			this.order = order;
+			this.grain = grain;
+		}
+
+		protected void compute() {
+			if (hi - lo <= grain) {
+				sort(items, pos, itemBuf, posBuf, lo, hi, base, order);
+				return;
+			}
+			int mid = (lo + hi) >>> 1;
+			invokeAll(new SortTask<T>(items, pos, itemBuf, posBuf, lo, mid, base, order, grain),
+					new SortTask<T>(items, pos, itemBuf, posBuf, mid, hi, base, order, grain));
+			merge(items, pos, itemBuf, posBuf, lo, mid, hi, base, order);
+		}
+	}
+
+	// the buffers hold the range starting at offset base
+	private static <T> void sort(T[] items, int[] pos, T[] itemBuf, int[] posBuf, int lo, int hi, int base,
+			Comparator<? super T> order) {
+		if (hi - lo <= INSERTION_THRESHOLD) {
+			insertionSort(items, pos, lo, hi, order);
+			return;
+		}
+		int mid = (lo + hi) >>> 1;
+		sort(items, pos, itemBuf, posBuf, lo, mid, base, order);
+		sort(items, pos, itemBuf, posBuf, mid, hi, base, order);
+		merge(items, pos, itemBuf, posBuf, lo, mid, hi, base, order);
+	}
+
+	// merge the sorted runs [lo..mid) and [mid..hi)
+	private static <T> void merge(T[] items, int[] pos, T[] itemBuf, int[] posBuf, int lo, int mid, int hi, int base,
+			Comparator<? super T> order) {
+		// already in order, as for presorted input
+		if (order.compare(items[mid - 1], items[mid]) <= 0)
+			return;
+		System.arraycopy(items, lo, itemBuf, lo - base, mid - lo);
+		System.arraycopy(pos, lo, posBuf, lo - base, mid - lo);
+		int i = lo - base, end = mid - base, j = mid, k = lo;
+		while (i < end && j < hi) {
+			// take from the left run on ties to stay stable
+			if (order.compare(items[j], itemBuf[i]) < 0) {
+				items[k] = items[j];
+				pos[k++] = pos[j++];
+			} else {
+				items[k] = itemBuf[i];
+				pos[k++] = posBuf[i++];
+			}
+		}
+		System.arraycopy(itemBuf, i, items, k, end - i);
+		System.arraycopy(posBuf, i, pos, k, end - i);
+	}
+
+	// sort the distinct longs in keys[0..n) and the positions alongside
+	// them, a byte at a time from the lowest
+	static void radixSort(long[] keys, int[] pos, int n) {
+		if (n <= INSERTION_THRESHOLD) {
+			insertionSort(keys, pos, n);
+			return;
+		}
+		// one histogram per byte, all counted in one pass; flipping the sign
+		// bit puts the negative numbers first
+		int[][] counts = new int[8][257];
+		for (int i = 0; i < n; i++) {
+			long k = keys[i] ^ Long.MIN_VALUE;
+			for (int d = 0; d < 8; d++)
+				counts[d][((int) (k >>> 8 * d) & 0xFF) + 1]++;
+		}
+
+		long[] keyBuf = new long[n];
+		int[] posBuf = new int[n];
+		long[] from = keys, to = keyBuf;
+		int[] fromPos = pos, toPos = posBuf;
+		for (int d = 0; d < 8; d++) {
+			int[] c = counts[d];
+			// every key has the same byte here, so the pass would move nothing
+			if (c[((int) ((from[0] ^ Long.MIN_VALUE) >>> 8 * d) & 0xFF) + 1] == n)
+				continue;
+			for (int b = 0; b < 256; b++)
+				c[b + 1] += c[b];
+			for (int i = 0; i < n; i++) {
+				int b = (int) ((from[i] ^ Long.MIN_VALUE) >>> 8 * d) & 0xFF;
+				int j = c[b]++;
+				to[j] = from[i];
+				toPos[j] = fromPos[i];
+			}
+			long[] t = from;
+			from = to;
+			to = t;
+			int[] tp = fromPos;
+			fromPos = toPos;
+			toPos = tp;
+		}
+		if (from != keys) {
+			System.arraycopy(from, 0, keys, 0, n);
+			System.arraycopy(fromPos, 0, pos, 0, n);
+		}
+	}
+
+	// sort the distinct strings in keys[0..n), whose chars all fit in a
+	// byte, and the positions alongside them, a char at a time from the first
+	static void radixSort(String[] keys, int[] pos, int n) {
+		radixSort(keys, pos, new String[n], new int[n], 0, n, 0);
+	}
+
+	// the keys in [lo..hi) share their first d chars
+	private static void radixSort(String[] keys, int[] pos, String[] keyBuf, int[] posBuf, int lo, int hi, int d) {
+		if (hi - lo <= INSERTION_THRESHOLD || d == MAX_RADIX_DEPTH) {
+			sort(keys, pos, keyBuf, posBuf, lo, hi, 0, Comparator.naturalOrder());
+			return;
+		}
+		// count[1] is for the key that ends at d, then one per char
+		int[] count = new int[258];
+		for (int i = lo; i < hi; i++)
+			count[charAt(keys[i], d) + 2]++;
+		for (int b = 0; b < 257; b++)
+			count[b + 1] += count[b];
+		for (int i = lo; i < hi; i++) {
+			int j = lo + count[charAt(keys[i], d) + 1]++;
+			keyBuf[j] = keys[i];
+			posBuf[j] = pos[i];
+		}
+		System.arraycopy(keyBuf, lo, keys, lo, hi - lo);
+		System.arraycopy(posBuf, lo, pos, lo, hi - lo);
+
+		// count[b] now ends the bucket of char b; the keys are distinct, so
+		// at most one ends at d and needs no more sorting
+		for (int b = 0; b < 256; b++) {
+			if (count[b + 1] - count[b] > 1)
+				radixSort(keys, pos, keyBuf, posBuf, lo + count[b], lo + count[b + 1], d + 1);
+		}
+	}
+
+	// the char of s at d, -1 past its end
+	private static int charAt(String s, int d) {
+		return d < s.length() ? s.charAt(d) : -1;
+	}
+
+	private static void insertionSort(long[] keys, int[] pos, int n) {
+		for (int i = 1; i < n; i++) {
+			long key = keys[i];
+			int p = pos[i];
+			int j = i - 1;
+			while (j >= 0 && keys[j] > key) {
+				keys[j + 1] = keys[j];
+				pos[j + 1] = pos[j];
+				j--;
+			}
+			keys[j + 1] = key;
+			pos[j + 1] = p;
+		}
+	}
+
+	private static <T> void insertionSort(T[] items, int[] pos, int lo, int hi, Comparator<? super T> order) {
+		for (int i = lo + 1; i < hi; i++) {
+			T item = items[i];
+			int p = pos[i];
+			int j = i - 1;
+			while (j >= lo && order.compare(items[j], item) > 0) {
+				items[j + 1] = items[j];
+				pos[j + 1] = pos[j];
+				j--;
+			}
+			items[j + 1] = item;
+			pos[j + 1] = p;
+		}
+	}
+}
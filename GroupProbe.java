@@ -0,0 +1,23 @@
+// Compares a group of GROUP consecutive control bytes from a PHPArray index
+// against one byte value.  A control byte holds 7 bits of the hash of the key
+// in its slot, or EMPTY or DELETED for a slot with no key.
+interface GroupProbe {
+	int GROUP = 16;
+	byte EMPTY = (byte) 0x80;
+	byte DELETED = (byte) 0xFE;
+
+	// bit k of the low word is set if ctrl[i + k] == b, bit k of the high word
+	// is set if ctrl[i + k] is EMPTY, for k in 0..GROUP-1
+	long match(byte[] ctrl, int i, byte b);
+
+	// the Vector API version when jdk.incubator.vector is available, otherwise
+	// a plain loop over the group
+	static GroupProbe best() {
+		try {
+			Class.forName("jdk.incubator.vector.ByteVector");
+			return (GroupProbe) Class.forName("VectorGroupProbe").getDeclaredConstructor().newInstance();
+		} catch (ReflectiveOperationException | LinkageError e) {
+			return new ScalarGroupProbe();
+		}
+	}
+}
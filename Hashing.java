@@ -0,0 +1,40 @@
+// The hashing and probing helpers that PHPArray and its variants share: the
+// hash mixing applied to every key, the test for a canonical integer key,
+// and the rule backward-shift deletion uses to decide which keys may move.
+final class Hashing {
+	private Hashing() {
+	}
+
+	// Murmur3 finalizer: mixes every bit of a hashCode() into the low bits,
+	// which are the only ones a power-of-two mask keeps
+	static int spread(int h) {
+		h ^= h >>> 16;
+		h *= 0x85ebca6b;
+		h ^= h >>> 13;
+		h *= 0xc2b2ae35;
+		h ^= h >>> 16;
+		return h;
+	}
+
+	// the value of a canonical non-negative int key such as "42", otherwise -1
+	static int packedKey(String key) {
+		int n = key.length();
+		if (n == 0 || n > 10 || (n > 1 && key.charAt(0) == '0'))
+			return -1;
+		long k = 0;
+		for (int c = 0; c < n; c++) {
+			char d = key.charAt(c);
+			if (d < '0' || d > '9')
+				return -1;
+			k = k * 10 + (d - '0');
+		}
+		return k <= Integer.MAX_VALUE ? (int) k : -1;
+	}
+
+	// whether the key in slot j, whose home slot is home, may fill the empty
+	// slot i of its cluster: a key whose home is cyclically in (i, j] can't
+	// move back past i
+	static boolean canShiftBack(int home, int i, int j) {
+		return i <= j ? (home <= i || home > j) : (home <= i && home > j);
+	}
+}
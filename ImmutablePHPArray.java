@@ -0,0 +1,390 @@
+import java.util.*;
+
+// A PHPArray that never changes: with() and without() return a new version
+// and leave this one as it was.  A new version copies only the O(log32 N)
+// nodes on the path to the key and shares everything else, so keeping many
+// versions that differ by a few keys costs little more than one copy.
+//
+// Two tries hold the entries.  A hash array mapped trie finds a key: each
+// node spends 5 bits of the key's hash to pick one of up to 32 children, and
+// stores only the children that exist, packed behind a bitmap.  Every entry
+// also gets a sequence number in insertion order, and a 32-way radix trie
+// indexed by that number keeps the entries in order for iteration.  without()
+// leaves a null there; once the nulls outnumber the entries the next version
+// is rebuilt with new sequence numbers.
+public class ImmutablePHPArray<V> implements Iterable<V> {
+	private static final int BITS = 5; // hash bits consumed per level
+	private static final int WIDTH = 1 << BITS; // children per node
+	private static final int MASK = WIDTH - 1;
+
+	// an entry: key, its spread hash, its place in insertion order and value
+	private static final class Leaf {
+		final String key;
+		final int hash;
+		final int seq;
+		final Object value;
+
+		Leaf(String key, int hash, int seq, Object value) {
+			this.key = key;
+			this.hash = hash;
+			this.seq = seq;
+			this.value = value;
+		}
+	}
+
+	// a trie node; slots holds a Leaf, Collision or Node for every bit set in
+	// bitmap, in order of the bits
+	private static final class Node {
+		final int bitmap;
+		final Object[] slots;
+
+		Node(int bitmap, Object[] slots) {
+			this.bitmap = bitmap;
+			this.slots = slots;
+		}
+	}
+
+	// leaves whose keys differ but whose 32-bit hashes are all equal
+	private static final class Collision {
+		final int hash;
+		final Leaf[] leaves;
+
+		Collision(int hash, Leaf[] leaves) {
+			this.hash = hash;
+			this.leaves = leaves;
+		}
+	}
+
+	private static final Node EMPTY_NODE = new Node(0, new Object[0]);
+
+	private final int N; // number of key-value pairs
+	private final Node root; // root of the hash trie
+	private final Object[] order; // root of the order trie, leaves by sequence number
+	private final int orderShift; // BITS times the levels below the order root
+	private final int orderSize; // sequence numbers handed out, including unset ones
+
+	// create an empty array
+	public ImmutablePHPArray() {
+		this(0, EMPTY_NODE, new Object[WIDTH], 0, 0);
+	}
+
+	private ImmutablePHPArray(int N, Node root, Object[] order, int orderShift, int orderSize) {
+		this.N = N;
+		this.root = root;
+		this.order = order;
+		this.orderShift = orderShift;
+		this.orderSize = orderSize;
+	}
+
+	// a version with key mapped to val; an existing key keeps its place in
+	// insertion order, a new one goes last; a null val removes the key
+	public ImmutablePHPArray<V> with(String key, V val) {
+		if (val == null)
+			return without(key);
+		int h = Hashing.spread(key.hashCode());
+		Leaf old = find(key, h);
+		if (old != null) {
+			if (old.value == val)
+				return this;
+			Leaf leaf = new Leaf(key, h, old.seq, val);
+			return new ImmutablePHPArray<V>(N, assoc(root, 0, leaf), set(order, orderShift, old.seq, leaf),
+					orderShift, orderSize);
+		}
+
+		// add a level to the order trie when it is full
+		Object[] o = order;
+		int shift = orderShift;
+		if (orderSize == 1 << (shift + BITS)) {
+			o = new Object[WIDTH];
+			o[0] = order;
+			shift += BITS;
+		}
+		Leaf leaf = new Leaf(key, h, orderSize, val);
+		return new ImmutablePHPArray<V>(N + 1, assoc(root, 0, leaf), set(o, shift, orderSize, leaf), shift,
+				orderSize + 1);
+	}
+
+	public ImmutablePHPArray<V> with(int key, V val) {
+		return with(Integer.toString(key), val);
+	}
+
+	// a version without key, this one if key is not there
+	public ImmutablePHPArray<V> without(String key) {
+		int h = Hashing.spread(key.hashCode());
+		Leaf old = find(key, h);
+		if (old == null)
+			return this;
+		// the root never collapses, so dissoc() returns a Node or null
+		Node r = (Node) dissoc(root, 0, key, h);
+		ImmutablePHPArray<V> next = new ImmutablePHPArray<V>(N - 1, r == null ? EMPTY_NODE : r,
+				set(order, orderShift, old.seq, null), orderShift, orderSize);
+		// renumber once the unset entries outnumber the live ones
+		int holes = orderSize - (N - 1);
+		if (holes > WIDTH && holes > N - 1)
+			return next.rebuild();
+		return next;
+	}
+
+	public ImmutablePHPArray<V> without(int key) {
+		return without(Integer.toString(key));
+	}
+
+	// return the value associated with the given key, null if no such value
+	@SuppressWarnings("unchecked")
+	public V get(String key) {
+		Leaf leaf = find(key, Hashing.spread(key.hashCode()));
+		return leaf == null ? null : (V) leaf.value;
+	}
+
+	public V get(int key) {
+		return get(Integer.toString(key));
+	}
+
+	// does a key-value pair with the given key exist?
+	public boolean contains(String key) {
+		return find(key, Hashing.spread(key.hashCode())) != null;
+	}
+
+	// return the number of key-value pairs
+	public int length() {
+		return N;
+	}
+
+	// iterate over the values in insertion order
+	public Iterator<V> iterator() {
+		return new Iterator<V>() {
+			private final LeafIterator leaves = new LeafIterator();
+
+			public boolean hasNext() {
+				return leaves.hasNext();
+			}
+
+			@SuppressWarnings("unchecked")
+			public V next() {
+				return (V) leaves.next().value;
+			}
+		};
+	}
+
+	// returns an array list that contains all keys in insertion order
+	public ArrayList<String> keys() {
+		ArrayList<String> list = new ArrayList<String>(N);
+		for (LeafIterator it = new LeafIterator(); it.hasNext();)
+			list.add(it.next().key);
+		return list;
+	}
+
+	// returns an array list that contains all values in insertion order
+	public ArrayList<V> values() {
+		ArrayList<V> list = new ArrayList<V>(N);
+		for (V v : this)
+			list.add(v);
+		return list;
+	}
+
+	// return an array list of the key-value pairs in insertion order
+	@SuppressWarnings("unchecked")
+	public ArrayList<PHPArray.Pair<V>> pairs() {
+		ArrayList<PHPArray.Pair<V>> list = new ArrayList<PHPArray.Pair<V>>(N);
+		for (LeafIterator it = new LeafIterator(); it.hasNext();) {
+			Leaf leaf = it.next();
+			list.add(new PHPArray.Pair<V>(leaf.key, (V) leaf.value));
+		}
+		return list;
+	}
+
+	// walks the order trie a block of WIDTH leaves at a time
+	private class LeafIterator implements Iterator<Leaf> {
+		private int seq = -1; // sequence number of the leaf next() returns
+		private Object[] block; // the order trie leaf block holding seq
+
+		LeafIterator() {
+			advance();
+		}
+
+		public boolean hasNext() {
+			return seq < orderSize;
+		}
+
+		public Leaf next() {
+			if (!hasNext())
+				throw new NoSuchElementException();
+			Leaf leaf = (Leaf) block[seq & MASK];
+			advance();
+			return leaf;
+		}
+
+		// move seq to the next live entry
+		private void advance() {
+			for (seq++; seq < orderSize; seq++) {
+				if ((seq & MASK) == 0 || block == null)
+					block = blockFor(seq);
+				if (block[seq & MASK] != null)
+					return;
+			}
+		}
+	}
+
+	// the live entries again, numbered from 0 in a fresh pair of tries
+	private ImmutablePHPArray<V> rebuild() {
+		ImmutablePHPArray<V> a = new ImmutablePHPArray<V>();
+		for (LeafIterator it = new LeafIterator(); it.hasNext();) {
+			Leaf leaf = it.next();
+			@SuppressWarnings("unchecked")
+			V v = (V) leaf.value;
+			a = a.with(leaf.key, v);
+		}
+		return a;
+	}
+
+	private Leaf find(String key, int h) {
+		Node n = root;
+		for (int shift = 0;; shift += BITS) {
+			int bit = 1 << ((h >>> shift) & MASK);
+			if ((n.bitmap & bit) == 0)
+				return null;
+			Object child = n.slots[Integer.bitCount(n.bitmap & (bit - 1))];
+			if (child instanceof Node) {
+				n = (Node) child;
+				continue;
+			}
+			if (child instanceof Leaf) {
+				Leaf leaf = (Leaf) child;
+				return leaf.hash == h && leaf.key.equals(key) ? leaf : null;
+			}
+			Collision c = (Collision) child;
+			if (c.hash != h)
+				return null;
+			for (Leaf leaf : c.leaves) {
+				if (leaf.key.equals(key))
+					return leaf;
+			}
+			return null;
+		}
+	}
+
+	// a copy of node n at the given shift with leaf added or replacing the
+	// leaf with the same key
+	private static Node assoc(Node n, int shift, Leaf leaf) {
+		int bit = 1 << ((leaf.hash >>> shift) & MASK);
+		int i = Integer.bitCount(n.bitmap & (bit - 1));
+		if ((n.bitmap & bit) == 0) {
+			Object[] slots = new Object[n.slots.length + 1];
+			System.arraycopy(n.slots, 0, slots, 0, i);
+			slots[i] = leaf;
+			System.arraycopy(n.slots, i, slots, i + 1, n.slots.length - i);
+			return new Node(n.bitmap | bit, slots);
+		}
+
+		Object child = n.slots[i];
+		Object replacement;
+		if (child instanceof Node) {
+			replacement = assoc((Node) child, shift + BITS, leaf);
+		} else if (child instanceof Leaf && ((Leaf) child).key.equals(leaf.key)) {
+			replacement = leaf;
+		} else if (child instanceof Leaf && ((Leaf) child).hash == leaf.hash) {
+			replacement = new Collision(leaf.hash, new Leaf[] { (Leaf) child, leaf });
+		} else if (child instanceof Collision && ((Collision) child).hash == leaf.hash) {
+			replacement = addToCollision((Collision) child, leaf);
+		} else {
+			// two different hashes share this slot, push them a level down
+			replacement = assoc(wrap(child, shift + BITS), shift + BITS, leaf);
+		}
+		Object[] slots = n.slots.clone();
+		slots[i] = replacement;
+		return new Node(n.bitmap, slots);
+	}
+
+	private static Object addToCollision(Collision c, Leaf leaf) {
+		Leaf[] leaves = c.leaves;
+		for (int k = 0; k < leaves.length; k++) {
+			if (leaves[k].key.equals(leaf.key)) {
+				leaves = leaves.clone();
+				leaves[k] = leaf;
+				return new Collision(c.hash, leaves);
+			}
+		}
+		leaves = Arrays.copyOf(leaves, leaves.length + 1);
+		leaves[leaves.length - 1] = leaf;
+		return new Collision(c.hash, leaves);
+	}
+
+	// a node at the given shift holding just the Leaf or Collision x
+	private static Node wrap(Object x, int shift) {
+		int h = x instanceof Leaf ? ((Leaf) x).hash : ((Collision) x).hash;
+		return new Node(1 << ((h >>> shift) & MASK), new Object[] { x });
+	}
+
+	// node n at the given shift without key: n itself if key is not there,
+	// null if nothing is left, or a lone Leaf or Collision for the parent to
+	// hold in place of a node
+	private static Object dissoc(Node n, int shift, String key, int h) {
+		int bit = 1 << ((h >>> shift) & MASK);
+		if ((n.bitmap & bit) == 0)
+			return n;
+		int i = Integer.bitCount(n.bitmap & (bit - 1));
+		Object child = n.slots[i];
+		Object replacement;
+		if (child instanceof Node) {
+			replacement = dissoc((Node) child, shift + BITS, key, h);
+			if (replacement == child)
+				return n;
+		} else if (child instanceof Leaf) {
+			if (!((Leaf) child).key.equals(key))
+				return n;
+			replacement = null;
+		} else {
+			Collision c = (Collision) child;
+			int k = 0;
+			while (k < c.leaves.length && !c.leaves[k].key.equals(key))
+				k++;
+			if (k == c.leaves.length)
+				return n;
+			if (c.leaves.length == 2) {
+				replacement = c.leaves[1 - k];
+			} else {
+				Leaf[] leaves = new Leaf[c.leaves.length - 1];
+				System.arraycopy(c.leaves, 0, leaves, 0, k);
+				System.arraycopy(c.leaves, k + 1, leaves, k, leaves.length - k);
+				replacement = new Collision(c.hash, leaves);
+			}
+		}
+
+		if (replacement == null) {
+			if (n.slots.length == 1)
+				return null;
+			Object[] slots = new Object[n.slots.length - 1];
+			System.arraycopy(n.slots, 0, slots, 0, i);
+			System.arraycopy(n.slots, i + 1, slots, i, slots.length - i);
+			// a node left with a single leaf collapses into its parent
+			if (slots.length == 1 && !(slots[0] instanceof Node) && shift > 0)
+				return slots[0];
+			return new Node(n.bitmap & ~bit, slots);
+		}
+		if (n.slots.length == 1 && !(replacement instanceof Node) && shift > 0)
+			return replacement;
+		Object[] slots = n.slots.clone();
+		slots[i] = replacement;
+		return new Node(n.bitmap, slots);
+	}
+
+	// the leaf block of the order trie that holds sequence number seq
+	private Object[] blockFor(int seq) {
+		Object[] node = order;
+		for (int shift = orderShift; shift > 0; shift -= BITS)
+			node = (Object[]) node[(seq >>> shift) & MASK];
+		return node;
+	}
+
+	// a copy of the order trie node at the given shift with slot seq set to x
+	private static Object[] set(Object[] node, int shift, int seq, Object x) {
+		Object[] copy = node == null ? new Object[WIDTH] : node.clone();
+		if (shift == 0) {
+			copy[seq & MASK] = x;
+		} else {
+			int i = (seq >>> shift) & MASK;
+			copy[i] = set((Object[]) copy[i], shift - BITS, seq, x);
+		}
+		return copy;
+	}
+}
@@ -0,0 +1,108 @@
+import java.util.*;
+
+// A PHPArray whose values are ints, kept in an int[] with no boxing
+public class IntPHPArray extends PrimitivePHPArray implements Iterable<Integer> {
+	private int[] vals; // values by entry position, 0 in holes
+
+	// create an empty table
+	public IntPHPArray() {
+		this(INIT_CAPACITY);
+	}
+
+	// create a table of given capacity, rounded up to a power of two
+	public IntPHPArray(int capacity) {
+		super(capacity);
+		vals = new int[entryCapacity(M)];
+	}
+
+	// insert the key-value pair into the symbol table
+	public void put(String key, int val) {
+		// insert() may grow vals, so read the field only after it returns
+		int p = insert(key);
+		vals[p] = val;
+	}
+
+	public void put(int key, int val) {
+		int p = insert(key);
+		vals[p] = val;
+	}
+
+	// return the value associated with the given key, 0 if no such key
+	public int get(String key) {
+		int p = position(key);
+		return p < 0 ? 0 : vals[p];
+	}
+
+	public int get(int key) {
+		int p = position(key);
+		return p < 0 ? 0 : vals[p];
+	}
+
+	// returns the values in insertion order
+	public int[] values() {
+		int[] list = new int[N];
+		for (int p = nextLive(0), k = 0; p < used; p = nextLive(p + 1))
+			list[k++] = vals[p];
+		return list;
+	}
+
+	// iterate over the values in insertion order without boxing them
+	public PrimitiveIterator.OfInt iterator() {
+		return new PrimitiveIterator.OfInt() {
+			private int current = nextLive(0);
+
+			public boolean hasNext() {
+				return current < used;
+			}
+
+			public int nextInt() {
+				if (!hasNext())
+					throw new NoSuchElementException();
+				int result = vals[current];
+				current = nextLive(current + 1);
+				return result;
+			}
+		};
+	}
+
+	// Sort the values and assign new keys 0..length()-1 in sorted order
+	public void sort() {
+		compactForSort();
+		Arrays.sort(vals, 0, N);
+		renumber();
+	}
+
+	// Calculate the sum of values in an array; holes hold 0 so there is
+	// nothing to skip
+	public long array_sum() {
+		long sum = 0;
+		for (int p = 0; p < used; p++)
+			sum += vals[p];
+		return sum;
+	}
+
+	// Calculate the product of values in an array
+	public double array_product() {
+		double pro = 1.0;
+		if (used == N) {
+			for (int p = 0; p < used; p++)
+				pro *= vals[p];
+		} else {
+			for (int p = nextLive(0); p < used; p = nextLive(p + 1))
+				pro *= vals[p];
+		}
+		return pro;
+	}
+
+	void growValues(int capacity) {
+		vals = Arrays.copyOf(vals, capacity);
+	}
+
+	void moveValue(int from, int to) {
+		vals[to] = vals[from];
+	}
+
+	void clearValue(int p) {
+		vals[p] = 0;
+	}
+}
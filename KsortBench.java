@@ -0,0 +1,77 @@
+import java.util.*;
+
+/**  ksort() with its radix sorts against Collections.sort on the same keys.
+ * Two key sets are timed: random int keys, which ksort() radix sorts as
+ * longs, and random string keys, which it radix sorts a char at a time.
+ * Collections.sort gets the keys already parsed, Longs for the int keys and
+ * Strings for the others, so it only pays for the comparisons; ksort() also
+ * parses every key and moves the entries into the new order.
+ *
+ * 10M keys need a heap of about 4 GB: java -Xmx4g KsortBench
+ *
+ * Usage: java KsortBench [keys] [rounds]
+ */
+public class KsortBench
+{
+	public static void main(String [] args)
+	{
+		int n = args.length > 0 ? Integer.parseInt(args[0]) : 10000000;
+		int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+		System.out.println(n + " keys, best of " + rounds + " rounds");
+		System.out.printf("%8s %16s %16s%n", "keys", "radix ksort()", "Collections.sort");
+		for (boolean ints : new boolean[] {true, false})
+		{
+			String[] keys = keys(n, ints);
+			long radix = Long.MAX_VALUE, comparison = Long.MAX_VALUE;
+			for (int round = 0; round < rounds; round++)
+			{
+				radix = Math.min(radix, ksort(keys));
+				comparison = Math.min(comparison, ints ? sortLongs(keys) : sortStrings(keys));
+			}
+			System.out.printf("%8s %13.1f ms %13.1f ms%n", ints ? "int" : "string", radix / 1e6, comparison / 1e6);
+		}
+	}
+
+	// n distinct keys in random order
+	private static String[] keys(int n, boolean ints)
+	{
+		Random r = new Random(1);
+		Set<String> seen = new HashSet<String>();
+		String[] keys = new String[n];
+		for (int i = 0; i < n;)
+		{
+			String key = ints ? Integer.toString(r.nextInt()) : "id_" + Long.toString(r.nextLong() >>> 1, 36);
+			if (seen.add(key))
+				keys[i++] = key;
+		}
+		return keys;
+	}
+
+	private static long ksort(String[] keys)
+	{
+		PHPArray<Integer> A = new PHPArray<Integer>(keys.length);
+		for (int i = 0; i < keys.length; i++)
+			A.put(keys[i], i);
+		long t = System.nanoTime();
+		A.ksort();
+		return System.nanoTime() - t;
+	}
+
+	private static long sortLongs(String[] keys)
+	{
+		List<Long> list = new ArrayList<Long>(keys.length);
+		for (String key : keys)
+			list.add(Long.parseLong(key));
+		long t = System.nanoTime();
+		Collections.sort(list);
+		return System.nanoTime() - t;
+	}
+
+	private static long sortStrings(String[] keys)
+	{
+		List<String> list = new ArrayList<String>(Arrays.asList(keys));
+		long t = System.nanoTime();
+		Collections.sort(list);
+		return System.nanoTime() - t;
+	}
+}
@@ -21,6 +21,8 @@ public class LinearProbingHashST<Key, Value> {
     private int M;           // size of linear probing table
     private Key[] keys;      // the keys
     private Value[] vals;    // the values
+    private boolean robinHood;  // use Robin Hood insertion
+    private int[] dist;      // distance of each key from its home slot, Robin Hood only
 
 
     // create an empty hash table - use 16 as default size
@@ -30,9 +32,17 @@ public class LinearProbingHashST<Key, Value> {
 
     // create linear proving hash table of given capacity
     public LinearProbingHashST(int capacity) {
+        this(capacity, false);
+    }
+
+    // create linear probing hash table of given capacity, using Robin Hood
+    // insertion if robinHood is true
+    public LinearProbingHashST(int capacity, boolean robinHood) {
         M = capacity;
         keys = (Key[])   new Object[M];
         vals = (Value[]) new Object[M];
+        this.robinHood = robinHood;
+        if (robinHood) dist = new int[M];
     }
 
     // return the number of key-value pairs in the symbol table
@@ -55,9 +65,16 @@ public class LinearProbingHashST<Key, Value> {
         return (key.hashCode() & 0x7fffffff) % M;
     }
 
+    // most keys the table holds before doubling: half full for plain linear
+    // probing, 7/8 full for Robin Hood, always leaving one empty slot
+    private int maxLoad() {
+        if (robinHood) return M - Math.max(1, M/8);
+        return M/2;
+    }
+
     // resize the hash table to the given capacity by re-hashing all of the keys
     private void resize(int capacity) {
-        LinearProbingHashST<Key, Value> temp = new LinearProbingHashST<Key, Value>(capacity);
+        LinearProbingHashST<Key, Value> temp = new LinearProbingHashST<Key, Value>(capacity, robinHood);
         for (int i = 0; i < M; i++) {
             if (keys[i] != null) {
                 temp.put(keys[i], vals[i]);
@@ -65,6 +82,7 @@ public class LinearProbingHashST<Key, Value> {
         }
         keys = temp.keys;
         vals = temp.vals;
+        dist = temp.dist;
         M    = temp.M;
     }
 
@@ -72,8 +90,10 @@ public class LinearProbingHashST<Key, Value> {
     public void put(Key key, Value val) {
         if (val == null) delete(key);
 
-        // double table size if 50% full
-        if (N >= M/2) resize(2*M);
+        // double table size if 50% full (7/8 full for Robin Hood)
+        if (N >= maxLoad()) resize(2*M);
+
+        if (robinHood) { putRobinHood(key, val); return; }
 
         int i;
         for (i = hash(key); keys[i] != null; i = (i + 1) % M) {
@@ -84,16 +104,42 @@ public class LinearProbingHashST<Key, Value> {
         N++;
     }
 
+    // Robin Hood insert: a key takes the slot of any key closer to its own home,
+    // and the displaced key continues down the table
+    private void putRobinHood(Key key, Value val) {
+        int i, d;
+        for (i = hash(key), d = 0; keys[i] != null && dist[i] >= d; i = (i + 1) % M, d++) {
+            if (keys[i].equals(key)) { vals[i] = val; return; }
+        }
+        N++;
+        while (keys[i] != null) {
+            if (dist[i] < d) {
+                Key   k = keys[i]; keys[i] = key; key = k;
+                Value v = vals[i]; vals[i] = val; val = v;
+                int   t = dist[i]; dist[i] = d;   d   = t;
+            }
+            i = (i + 1) % M;
+            d++;
+        }
+        keys[i] = key;
+        vals[i] = val;
+        dist[i] = d;
+    }
+
     // return the value associated with the given key, null if no such value
     public Value get(Key key) {
-        for (int i = hash(key); keys[i] != null; i = (i + 1) % M) 
+        for (int i = hash(key), d = 0; keys[i] != null; i = (i + 1) % M, d++) {
+            // with Robin Hood the key would have displaced a closer key
+            if (robinHood && dist[i] < d) return null;
             if (keys[i].equals(key))
                 return vals[i];
+        }
         return null;
     }
 
     // delete the key (and associated value) from the symbol table
     public void delete(Key key) {
+        if (robinHood) { deleteRobinHood(key); return; }
         if (!contains(key)) return;
 
         // find position i of key
@@ -127,6 +173,33 @@ public class LinearProbingHashST<Key, Value> {
         assert check();
     }
 
+    // Robin Hood delete: shift the following keys back one slot until an empty
+    // slot or a key already in its home slot
+    private void deleteRobinHood(Key key) {
+        int i, d;
+        for (i = hash(key), d = 0; keys[i] != null && dist[i] >= d; i = (i + 1) % M, d++) {
+            if (keys[i].equals(key)) break;
+        }
+        if (keys[i] == null || dist[i] < d) return;
+
+        int j = (i + 1) % M;
+        while (keys[j] != null && dist[j] > 0) {
+            keys[i] = keys[j];
+            vals[i] = vals[j];
+            dist[i] = dist[j] - 1;
+            i = j;
+            j = (j + 1) % M;
+        }
+        keys[i] = null;
+        vals[i] = null;
+        N--;
+
+        // halves size of array if it's 12.5% full or less
+        if (N > 0 && N <= M/8) resize(M/2);
+
+        assert check();
+    }
+
     // return all of the keys as in Iterable
     public Iterable<Key> keys() {
         Queue<Key> queue = new Queue<Key>();
@@ -139,8 +212,8 @@ public class LinearProbingHashST<Key, Value> {
     // integrity not maintained during a delete()
     private boolean check() {
 
-        // check that hash table is at most 50% full
-        if (M < 2*N) {
+        // check that hash table is at most 50% full (7/8 for Robin Hood)
+        if (N > maxLoad()) {
             System.err.println("Hash table size M = " + M + "; array size N = " + N);
             return false;
         }
@@ -0,0 +1,122 @@
+import java.util.*;
+
+// A PHPArray whose values are longs, kept in a long[] with no boxing
+public class LongPHPArray extends PrimitivePHPArray implements Iterable<Long> {
+	private long[] vals; // values by entry position, 0 in holes
+
+	// create an empty table
+	public LongPHPArray() {
+		this(INIT_CAPACITY);
+	}
+
+	// create a table of given capacity, rounded up to a power of two
+	public LongPHPArray(int capacity) {
+		super(capacity);
+		vals = new long[entryCapacity(M)];
+	}
+
+	// insert the key-value pair into the symbol table
+	public void put(String key, long val) {
+		// insert() may grow vals, so read the field only after it returns
+		int p = insert(key);
+		vals[p] = val;
+	}
+
+	public void put(int key, long val) {
+		int p = insert(key);
+		vals[p] = val;
+	}
+
+	// return the value associated with the given key, 0 if no such key
+	public long get(String key) {
+		int p = position(key);
+		return p < 0 ? 0 : vals[p];
+	}
+
+	public long get(int key) {
+		int p = position(key);
+		return p < 0 ? 0 : vals[p];
+	}
+
+	// returns the values in insertion order
+	public long[] values() {
+		long[] list = new long[N];
+		for (int p = nextLive(0), k = 0; p < used; p = nextLive(p + 1))
+			list[k++] = vals[p];
+		return list;
+	}
+
+	// iterate over the values in insertion order without boxing them
+	public PrimitiveIterator.OfLong iterator() {
+		return new PrimitiveIterator.OfLong() {
+			private int current = nextLive(0);
+
+			public boolean hasNext() {
+				return current < used;
+			}
+
+			public long nextLong() {
+				if (!hasNext())
+					throw new NoSuchElementException();
+				long result = vals[current];
+				current = nextLive(current + 1);
+				return result;
+			}
+		};
+	}
+
+	// Sort the values and assign new keys 0..length()-1 in sorted order
+	public void sort() {
+		compactForSort();
+		Arrays.sort(vals, 0, N);
+		renumber();
+	}
+
+	// Calculate the sum of values in an array; holes hold 0 so there is
+	// nothing to skip.  As in PHPArray.array_sum(), the result is a Long
+	// unless the sum overflows, which makes it a Double.
+	public Number array_sum() {
+		long sum = 0;
+		double overflowed = 0.0; // what had been summed before each overflow
+		boolean floating = false;
+		for (int p = 0; p < used; p++) {
+			long x = vals[p];
+			long r = sum + x;
+			if (((sum ^ r) & (x ^ r)) < 0) {
+				// overflowed: what there is so far goes on as a float
+				overflowed += sum;
+				r = x;
+				floating = true;
+			}
+			sum = r;
+		}
+		if (floating)
+			return overflowed + sum;
+		return sum;
+	}
+
+	// Calculate the product of values in an array
+	public double array_product() {
+		double pro = 1.0;
+		if (used == N) {
+			for (int p = 0; p < used; p++)
+				pro *= vals[p];
+		} else {
+			for (int p = nextLive(0); p < used; p = nextLive(p + 1))
+				pro *= vals[p];
+		}
+		return pro;
+	}
+
+	void growValues(int capacity) {
+		vals = Arrays.copyOf(vals, capacity);
+	}
+
+	void moveValue(int from, int to) {
+		vals[to] = vals[from];
+	}
+
+	void clearValue(int p) {
+		vals[p] = 0;
+	}
+}
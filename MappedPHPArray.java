@@ -0,0 +1,177 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+// A PHPArray with String keys that lives in a memory-mapped file, so a new
+// process can open it without rebuilding anything and only the pages get()
+// touches are read from disk.  Values are either a long or a byte[].  The
+// file is a header followed by the three regions of SegmentPHPArray:
+//
+//   header (64 bytes) | index (4 * M) | entries (40 * records) | data
+//
+// Growing a region extends the file, maps it again and moves the later regions
+// up.  Changes reach the disk in the background; force() makes them durable.
+// The header is marked dirty on the first change after a force(), and opening
+// a file that is still dirty fails, since a crash may have left it half
+// written.  Like PHPArray it is not synchronized.
+public final class MappedPHPArray extends SegmentPHPArray {
+	static final int MAGIC = 0x41504850; // "PHPA" in little-endian
+	static final int VERSION = 1;
+
+	// byte offsets of the header fields
+	private static final long H_MAGIC = 0; // int: MAGIC
+	private static final long H_VERSION = 4; // int: VERSION
+	private static final long H_DIRTY = 8; // int: 1 while changes are not forced
+	private static final long H_M = 12; // int: slots in the index
+	private static final long H_N = 16; // int: key-value pairs
+	private static final long H_RECORDS = 20; // int: entry records in the file
+	private static final long H_TOP = 24; // int: entry records handed out
+	private static final long H_FREE = 28; // int: first record on the free list
+	private static final long H_HEAD = 32; // int: first record in insertion order
+	private static final long H_TAIL = 36; // int: last record in insertion order
+	private static final long H_DATA_USED = 40; // long: bytes of data handed out
+	private static final long H_DATA_GARBAGE = 48; // long: bytes of data no longer referenced
+	private static final long H_DATA_SIZE = 56; // long: bytes in the data region
+	private static final long HEADER_BYTES = 64;
+
+	private final FileChannel channel;
+	private Arena arena; // owns the current mapping
+	private MemorySegment file; // the whole file
+	private boolean dirty;
+
+	// open the array stored at path, creating an empty one if there is none
+	public MappedPHPArray(Path path) throws IOException {
+		this(path, INIT_CAPACITY);
+	}
+
+	// open the array stored at path; a new file starts with the given capacity
+	public MappedPHPArray(Path path, int capacity) throws IOException {
+		channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE);
+		try {
+			if (channel.size() == 0) {
+				create(capacity);
+				force();
+			} else
+				load();
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	// write every change to the disk, returning once it is there
+	public void force() {
+		writeHeader();
+		file.force();
+		file.set(INT, H_DIRTY, 0);
+		file.asSlice(0, HEADER_BYTES).force();
+		dirty = false;
+	}
+
+	// force() and unmap the file; any use after that throws IllegalStateException
+	public void close() {
+		try {
+			force();
+			arena.close();
+			channel.close();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	void modified() {
+		if (dirty)
+			return;
+		file.set(INT, H_DIRTY, 1);
+		file.asSlice(0, HEADER_BYTES).force();
+		dirty = true;
+	}
+
+	void resizeRegions(int slots, int entryRecords, long dataBytes) {
+		long entryOff = index == null ? 0 : HEADER_BYTES + index.byteSize();
+		long dataOff = index == null ? 0 : entryOff + entries.byteSize();
+		try {
+			map(HEADER_BYTES + 4L * slots + entryRecords * ENTRY_BYTES + dataBytes);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		slice(slots, entryRecords, dataBytes);
+
+		// regions only grow, so move data up first, then entries
+		if (entryOff != 0) {
+			MemorySegment.copy(file, dataOff, data, 0, dataUsed);
+			MemorySegment.copy(file, entryOff, entries, 0, top * ENTRY_BYTES);
+		}
+	}
+
+	// read the header and map the file it describes
+	private void load() throws IOException {
+		ByteBuffer header = ByteBuffer.allocateDirect((int) HEADER_BYTES);
+		while (header.hasRemaining() && channel.read(header, header.position()) >= 0) {
+		}
+		MemorySegment h = MemorySegment.ofBuffer(header.flip());
+		if (header.limit() < HEADER_BYTES || h.get(INT, H_MAGIC) != MAGIC)
+			throw new IOException("not a MappedPHPArray file");
+		if (h.get(INT, H_VERSION) != VERSION)
+			throw new IOException("unsupported MappedPHPArray version " + h.get(INT, H_VERSION));
+		if (h.get(INT, H_DIRTY) != 0)
+			throw new IOException("MappedPHPArray file was not closed cleanly");
+
+		M = h.get(INT, H_M);
+		N = h.get(INT, H_N);
+		records = h.get(INT, H_RECORDS);
+		top = h.get(INT, H_TOP);
+		free = h.get(INT, H_FREE);
+		head = h.get(INT, H_HEAD);
+		tail = h.get(INT, H_TAIL);
+		dataUsed = h.get(LONG, H_DATA_USED);
+		dataGarbage = h.get(LONG, H_DATA_GARBAGE);
+		long dataSize = h.get(LONG, H_DATA_SIZE);
+		long size = HEADER_BYTES + 4L * M + records * ENTRY_BYTES + dataSize;
+		if (channel.size() < size)
+			throw new IOException("MappedPHPArray file is truncated");
+		map(size);
+		slice(M, records, dataSize);
+	}
+
+	// map the first size bytes of the file, extending it if needed
+	private void map(long size) throws IOException {
+		if (channel.size() < size)
+			channel.write(ByteBuffer.allocate(1), size - 1);
+		if (arena != null)
+			arena.close();
+		arena = Arena.ofShared();
+		file = channel.map(FileChannel.MapMode.READ_WRITE, 0, size, arena);
+	}
+
+	// point index, entries and data at their regions of the mapping
+	private void slice(int slots, int entryRecords, long dataBytes) {
+		long entryOff = HEADER_BYTES + 4L * slots;
+		long dataOff = entryOff + entryRecords * ENTRY_BYTES;
+		index = file.asSlice(HEADER_BYTES, 4L * slots);
+		entries = file.asSlice(entryOff, entryRecords * ENTRY_BYTES);
+		data = file.asSlice(dataOff, dataBytes);
+	}
+
+	private void writeHeader() {
+		file.set(INT, H_MAGIC, MAGIC);
+		file.set(INT, H_VERSION, VERSION);
+		file.set(INT, H_DIRTY, dirty ? 1 : 0);
+		file.set(INT, H_M, M);
+		file.set(INT, H_N, N);
+		file.set(INT, H_RECORDS, records);
+		file.set(INT, H_TOP, top);
+		file.set(INT, H_FREE, free);
+		file.set(INT, H_HEAD, head);
+		file.set(INT, H_TAIL, tail);
+		file.set(LONG, H_DATA_USED, dataUsed);
+		file.set(LONG, H_DATA_GARBAGE, dataGarbage);
+		file.set(LONG, H_DATA_SIZE, data.byteSize());
+	}
+}
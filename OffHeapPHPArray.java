@@ -0,0 +1,49 @@
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+
+// A PHPArray with String keys that keeps everything outside the Java heap, so
+// the garbage collector never has to trace its entries.  Values are either a
+// long or a byte[].  Each of the three segments (see SegmentPHPArray) comes
+// from its own Arena, so an outgrown segment is freed as soon as it is
+// replaced.  Like PHPArray it is not synchronized.  Call close() to release
+// the memory; any use after that throws IllegalStateException.
+public final class OffHeapPHPArray extends SegmentPHPArray {
+	private final Arena[] arenas = new Arena[3]; // for index, entries and data
+
+	// create an empty table
+	public OffHeapPHPArray() {
+		this(INIT_CAPACITY);
+	}
+
+	// create a table of given capacity, rounded up to a power of two
+	public OffHeapPHPArray(int capacity) {
+		create(capacity);
+	}
+
+	// release all off-heap memory
+	public void close() {
+		for (Arena arena : arenas)
+			arena.close();
+	}
+
+	void resizeRegions(int slots, int entryRecords, long dataBytes) {
+		index = regrow(0, index, 4L * slots, 0);
+		entries = regrow(1, entries, entryRecords * ENTRY_BYTES, top * ENTRY_BYTES);
+		data = regrow(2, data, dataBytes, dataUsed);
+	}
+
+	// a segment of the given size from a fresh Arena replacing that of
+	// region r, keeping the first keep bytes of seg
+	private MemorySegment regrow(int r, MemorySegment seg, long bytes, long keep) {
+		if (seg != null && seg.byteSize() == bytes)
+			return seg;
+		Arena arena = Arena.ofShared();
+		MemorySegment grown = arena.allocate(bytes, 8);
+		if (seg != null) {
+			MemorySegment.copy(seg, 0, grown, 0, keep);
+			arenas[r].close();
+		}
+		arenas[r] = arena;
+		return grown;
+	}
+}
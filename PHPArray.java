@@ -1,27 +1,166 @@
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
-
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiPredicate;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
+import java.util.function.Predicate;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+// A PHP array: an ordered map from String keys to values.  The entries sit in
+// insertion order in dense arrays, found through a hash index of their
+// positions; arrays keyed exactly 0..n-1 skip the index and keys altogether.
+//
+// Incremental resize (setIncrementalResize) spreads the re-hashing of a
+// growing index, and the copying of the entry arrays into longer ones, over
+// the puts around each doubling.  The longer arrays and the new index are
+// still allocated one per put(), which the JVM zeroes in time proportional to
+// their length.  Other work still happens in one call, in time proportional
+// to the size of the array:
+//  - the put() that finds the entry arrays full of holes left by unset()
+//    finishes any migration, then compacts and re-hashes every entry;
+//  - with Deletion.TOMBSTONE, the put() that purges tombstones re-hashes
+//    every entry.
+// Shrinking, sorting and the other whole-array operations also finish any
+// migration first.  ResizeLatency measures these pauses.
 public class PHPArray<V> implements Iterable<V> {
 	private static final int INIT_CAPACITY = 4;
+	private static final int EMPTY = -1; // marks an unused slot of the hash index
+	private static final int TOMBSTONE = -2; // marks a slot whose key was unset
+	private static final int MIGRATE_STEP = 4; // entries moved per operation by an incremental resize
+	private static final int GROW_STEP = 8; // entry positions copied per put() ahead of a doubling
+	private static final int SNAPSHOT_MAGIC = 0x50485053; // "PHPS"
+	private static final int SNAPSHOT_VERSION = 1;
+	private static final int SNAPSHOT_BUFFER = 1 << 16; // bytes streamed per channel call
+	private static final int PARALLEL_SORT_THRESHOLD = 1 << 16; // default for setParallelSortThreshold()
+	private static final int PARALLEL_SCAN_THRESHOLD = 1 << 18; // default for setParallelScanThreshold()
 	private int N; // number of key-value pairs in the symbol table
-	private int M; // size of linear probing table
-	private Node<V>[] entries; // the table
-	private Node<V> head; // head of the linked list
-	private Node<V> tail; // tail of the linked list
-	private Iterator<Pair<V>> iter; // iterator object return for each()
+	private int M; // size of linear probing table, always a power of two
+	private int used; // entry positions handed out so far, including holes
+	private boolean packed; // keys are exactly 0..used-1, stored implicitly by position
+	private int[] index; // the table: positions into the entry arrays, null while packed
+	private byte[] ctrl; // CONTROL_BYTES only: fingerprint of each slot of index
+	private String[] keys; // keys in insertion order, null while packed
+	private V[] vals; // values in insertion order, null marks a hole left by unset()
+	private int[] hashes; // spread hashCode() of each key, null while packed
+	private Cursor iter; // where each() is, null until it is first used
+	private boolean incremental; // grow the index a few entries per operation
+	private int[] oldIndex; // index still being drained by an incremental resize
+	private int oldM; // size of oldIndex
+	private int migrated; // entry positions below this are already in index
+	private int migrateEnd; // entry positions at or above this were never in oldIndex
+	private String[] nextKeys; // incremental resize: the longer entry arrays of the next doubling,
+	private V[] nextVals; // filled a few positions per put(), null when not under way
+	private int[] nextHashes;
+	private int copied; // entry positions below this are already in the next arrays
+	private int[] nextIndex; // incremental resize: the index (and ctrl) of the next doubling,
+	private byte[] nextCtrl; // set to EMPTY a few slots per put() alongside the entry arrays
+	private int cleared; // slots of nextIndex below this are already EMPTY
+	private Deletion deletion = Deletion.BACKWARD_SHIFT; // how unset() repairs the index
+	private int tombstones; // TOMBSTONE slots in index
+	private PHPArrayListener listener = PHPArrayListener.NONE; // receives diagnostics
+	private final Probing probing; // collision strategy of the index
+	private AtomicInteger shared; // instances sharing the arrays since copy(), null if only this one
+	private int parallelSortThreshold = PARALLEL_SORT_THRESHOLD; // sorts at least this long run in parallel
+	private int parallelScanThreshold = PARALLEL_SCAN_THRESHOLD; // scans at least this long run in parallel
+
+	// how keys that collide are laid out in the hash index
+	public enum Probing {
+		// plain linear probing, kept at most half full
+		LINEAR,
+		// linear probing where a key displaces any key closer to its home slot,
+		// which bounds probe lengths well enough to run the index 7/8 full
+		ROBIN_HOOD,
+		// linear probing plus a byte per slot holding 7 bits of the key's hash;
+		// lookups compare a group of these bytes at once and only call equals()
+		// on the slots whose byte matches
+		CONTROL_BYTES
+	}
+
+	// matches groups of control bytes, with the Vector API when it is available
+	private static final GroupProbe GROUPS = GroupProbe.best();
+
+	// how unset() removes a key from the hash index
+	public enum Deletion {
+		// move the rest of the cluster back into the freed slot
+		BACKWARD_SHIFT,
+		// leave a marker that lookups skip, purged when the table gets crowded
+		TOMBSTONE
+	}
 
 	// create an empty hash table - use 16 as default size
 	public PHPArray() {
 		this(INIT_CAPACITY);
 	}
 
-	// create a PHPArray of given capacity
+	// create a PHPArray of given capacity, rounded up to a power of two
 	public PHPArray(int capacity) {
-		M = capacity;
-		@SuppressWarnings("unchecked")
-		Node<V>[] temp = (Node<V>[]) new Node[M];
-		entries = temp;
-		head = tail = null;
-		N = 0;
+		this(capacity, Probing.LINEAR);
+	}
+
+	// create a PHPArray of given capacity using the given collision strategy
+	public PHPArray(int capacity, Probing probing) {
+		this.probing = probing;
+		M = tableSize(capacity);
+		empty();
+	}
+
+	// copy() shares everything but the iteration state
+	private PHPArray(PHPArray<V> from) {
+		probing = from.probing;
+		N = from.N;
+		M = from.M;
+		used = from.used;
+		packed = from.packed;
+		index = from.index;
+		ctrl = from.ctrl;
+		keys = from.keys;
+		vals = from.vals;
+		hashes = from.hashes;
+		incremental = from.incremental;
+		deletion = from.deletion;
+		tombstones = from.tombstones;
+		listener = from.listener;
+		shared = from.shared;
+		parallelSortThreshold = from.parallelSortThreshold;
+		parallelScanThreshold = from.parallelScanThreshold;
+	}
+
+	// an O(1) copy: both arrays share the same storage until one of them is
+	// changed, which then duplicates it first, as PHP does for array values
+	public PHPArray<V> copy() {
+		// a pending resize would write to the shared index on the next get()
+		finishMigration();
+		if (shared == null)
+			shared = new AtomicInteger(1);
+		shared.incrementAndGet();
+		return new PHPArray<V>(this);
+	}
+
+	// called before changing the arrays in place: if a copy() still shares
+	// them, give this instance its own; the count only drops when a sharer
+	// unshares, so a copy that was just dropped can still cause one duplication
+	private void unshare() {
+		if (shared.get() > 1) {
+			if (index != null)
+				index = index.clone();
+			if (ctrl != null)
+				ctrl = ctrl.clone();
+			if (keys != null)
+				keys = keys.clone();
+			if (hashes != null)
+				hashes = hashes.clone();
+			vals = vals.clone();
+			shared.decrementAndGet();
+		}
+		shared = null;
 	}
 
 	// inner class to return a new Iterator object
@@ -34,138 +173,626 @@ public class PHPArray<V> implements Iterable<V> {
 		return new MyPIterator();
 	}
 
+	// splits by ranges of entry positions, so parallel streams divide the
+	// work evenly
+	public Spliterator<V> spliterator() {
+		return new EntrySpliterator<V>(p -> vals[p]);
+	}
+
+	// the values, keys or key-value pairs in insertion order; the array must
+	// not change while a stream runs
+	public Stream<V> stream() {
+		return StreamSupport.stream(spliterator(), false);
+	}
+
+	public Stream<V> parallelStream() {
+		return StreamSupport.stream(spliterator(), true);
+	}
+
+	public Stream<String> keyStream() {
+		return StreamSupport.stream(new EntrySpliterator<String>(this::keyAt), false);
+	}
+
+	public Stream<Pair<V>> entryStream() {
+		return StreamSupport.stream(new EntrySpliterator<Pair<V>>(p -> new Pair<V>(keyAt(p), vals[p])), false);
+	}
+
+	// when on, growing the table keeps the old index for lookups and moves its
+	// entries over a few at a time instead of re-hashing everything in one put();
+	// the class comment lists the pauses that remain
+	public void setIncrementalResize(boolean on) {
+		if (!on)
+			finishMigration();
+		incremental = on;
+	}
+
+	// sorts of at least this many entries split the work across the common
+	// ForkJoinPool, or the caller's pool if it runs in one; Integer.MAX_VALUE
+	// keeps every sort on the calling thread
+	public void setParallelSortThreshold(int threshold) {
+		parallelSortThreshold = Math.max(1, threshold);
+	}
+
+	// array_sum(), array_product() and the array_diff and array_intersect
+	// functions over at least this many entry positions split the work
+	// across the common ForkJoinPool
+	public void setParallelScanThreshold(int threshold) {
+		parallelScanThreshold = Math.max(1, threshold);
+	}
+
+	// attach a listener for resize, rehash and probe events, null for none
+	public void setListener(PHPArrayListener l) {
+		listener = l == null ? PHPArrayListener.NONE : l;
+	}
+
+	// choose how unset() repairs the hash index
+	public void setDeletion(Deletion policy) {
+		if (shared != null)
+			unshare();
+		if (policy == Deletion.TOMBSTONE && probing == Probing.ROBIN_HOOD)
+			throw new IllegalStateException("Robin Hood probing only supports backward-shift deletion");
+		if (policy == Deletion.BACKWARD_SHIFT && tombstones > 0)
+			rebuildIndex();
+		deletion = policy;
+	}
+
 	// insert the key-value pair into the symbol table
 	public void put(String key, V val) {
-		if (val == null)
+		if (shared != null)
+			unshare();
+		if (val == null) {
 			unset(key);
+			return;
+		}
 
-		// double table size if 50% full
-		if (N >= M / 2) {
-			System.out.println("           " + "Size: " + N + " -- resizing array from " + M + " to " + 2 * M);
-			resize(2 * M);
+		// a canonical integer key may still fit the packed layout
+		if (packed) {
+			int k = Hashing.packedKey(key);
+			if (k >= 0 && putPacked(k, val))
+				return;
+			convertToHash();
 		}
 
-		// linear probing
+		// double table size once it reaches its maximum load
+		if (N >= maxLoad(M))
+			resize(2 * M);
+
+		// squeeze out holes before probing so the slot found stays valid
+		if (used == keys.length)
+			compact();
+		// purge tombstones before they crowd out the empty slots
+		if (tombstones > 0 && N + tombstones >= M * 3 / 4)
+			rebuildIndex();
+		if (oldIndex != null)
+			migrate(MIGRATE_STEP);
+		if (incremental)
+			growEntries(GROW_STEP);
+
+		// linear probing, d is the distance from the home slot
+		int h = Hashing.spread(key.hashCode());
 		int i;
-		for (i = hash(key); entries[i] != null; i = (i + 1) % M) {
-			// update the value if key already exists
-			if (entries[i].key.equals(key)) {
-				entries[i].value = val;
+		int d = 0;
+		int free = EMPTY;
+		if (probing == Probing.CONTROL_BYTES) {
+			int s = findGrouped(key, h);
+			if (s != EMPTY) {
+				storeValue(index[s], val);
 				return;
 			}
+			// the key is new, stop at the first free slot
+			for (i = hash(h); index[i] >= 0; i = (i + 1) & (M - 1)) {
+			}
+			if (index[i] == TOMBSTONE)
+				free = i;
+		} else {
+			for (i = hash(h); index[i] != EMPTY; i = (i + 1) & (M - 1), d++) {
+				// update the value if key already exists
+				int p = index[i];
+				if (p == TOMBSTONE) {
+					if (free == EMPTY)
+						free = i;
+				} else if (hashes[p] == h && keys[p].equals(key)) {
+					listener.onProbe(key, d + 1);
+					storeValue(p, val);
+					return;
+				} else if (probing == Probing.ROBIN_HOOD && distance(i, p) < d) {
+					// key would have displaced this entry, so it is not in the table
+					break;
+				}
+			}
+			listener.onProbe(key, d + 1);
 		}
-		// found an empty entry
-		entries[i] = new Node<V>(key, val);
-		// insert the node into the linked list
-		// TODO: Insert the node into the doubly linked list in O(1) time
-		if (head == null) {
-			head = entries[i];
-			tail = entries[i];
+		// the key may not have been moved out of the old index yet
+		if (oldIndex != null) {
+			int p = findOld(key, h);
+			if (p != EMPTY) {
+				storeValue(p, val);
+				return;
+			}
+		}
+		// found a free slot, append the entry in insertion order
+		keys[used] = key;
+		vals[used] = val;
+		hashes[used] = h;
+		if (free != EMPTY) {
+			setSlot(free, used);
+			tombstones--;
+		} else if (probing == Probing.ROBIN_HOOD) {
+			placeRobinHood(i, d, used);
 		} else {
-			tail.next = entries[i];
-			entries[i].prev = tail;
-			// tail = entries[i];
-			tail = tail.next;
+			setSlot(i, used);
 		}
-		// tail.next = entries[i];
-		// entries[i].prev = tail;
+		used++;
 
 		N++;
-		iter = new MyPIterator();
+		if (iter != null)
+			iter.reset();
 	}
 
 	// implement key with integer type
 	public void put(int key, V val) {
+		if (shared != null)
+			unshare();
+		if (val == null) {
+			unset(key);
+			return;
+		}
+		if (packed && putPacked(key, val))
+			return;
 		String Key = Integer.toString(key);
 		put(Key, val);
 	}
 
+	// store val under integer key k in the packed layout, returns false if k
+	// would leave the keys sparse or out of order and the hash layout is needed
+	private boolean putPacked(int k, V val) {
+		if (k >= 0 && k < used && vals[k] != null) {
+			storeValue(k, val);
+			return true;
+		}
+		if (k != used)
+			return false;
+
+		// double table size once it reaches its maximum load
+		if (N >= maxLoad(M))
+			resize(2 * M);
+		if (incremental && packed)
+			growEntries(GROW_STEP);
+		// too many holes left by unset() to keep growing by position
+		if (!packed || used == vals.length)
+			return false;
+
+		vals[used++] = val;
+		N++;
+		if (iter != null)
+			iter.reset();
+		return true;
+	}
+
 	// return the value associated with the given key, null if no such value
 	public V get(String key) {
-		for (int i = hash(key); entries[i] != null; i = (i + 1) % M)
-			if (entries[i].key.equals(key))
-				return entries[i].value;
+		if (packed) {
+			int k = Hashing.packedKey(key);
+			return k >= 0 ? get(k) : null;
+		}
+		if (oldIndex != null)
+			migrate(MIGRATE_STEP);
+		int i = find(key);
+		if (i != EMPTY)
+			return vals[index[i]];
+		if (oldIndex != null) {
+			int p = findOld(key, Hashing.spread(key.hashCode()));
+			return p == EMPTY ? null : vals[p];
+		}
 		return null;
 	}
 
 	// return the value with integer key, return null if the key isn't in the table
 	public V get(int key) {
+		if (packed)
+			return key >= 0 && key < used ? vals[key] : null;
 		String Key = Integer.toString(key);
 		return get(Key);
 	}
 
-	// resize the hash table to the given capacity by re-hashing all of the keys
+	// switch from the packed layout to the hash layout, giving every entry
+	// its String key and building the index
+	private void convertToHash() {
+		dropNextEntries();
+		packed = false;
+		keys = new String[vals.length];
+		hashes = new int[vals.length];
+		for (int p = 0; p < used; p++) {
+			if (vals[p] == null)
+				continue;
+			keys[p] = Integer.toString(p);
+			hashes[p] = Hashing.spread(keys[p].hashCode());
+		}
+		rebuildIndex();
+	}
+
+	// return the slot of the index holding key, EMPTY if it is not in the table
+	private int find(String key) {
+		int h = Hashing.spread(key.hashCode());
+		if (probing == Probing.CONTROL_BYTES)
+			return findGrouped(key, h);
+		int d = 0;
+		for (int i = hash(h); index[i] != EMPTY; i = (i + 1) & (M - 1), d++) {
+			int p = index[i];
+			if (p == TOMBSTONE)
+				continue;
+			if (hashes[p] == h && keys[p].equals(key)) {
+				listener.onProbe(key, d + 1);
+				return i;
+			}
+			if (probing == Probing.ROBIN_HOOD && distance(i, p) < d)
+				break;
+		}
+		listener.onProbe(key, d + 1);
+		return EMPTY;
+	}
+
+	// find() for CONTROL_BYTES: matches a whole group of control bytes against
+	// the key's fingerprint and only compares keys in the slots that match
+	private int findGrouped(String key, int h) {
+		byte fp = fingerprint(h);
+		int home = hash(h);
+		for (int i = home, scanned = 0;; i = (i + GroupProbe.GROUP) & (M - 1), scanned += GroupProbe.GROUP) {
+			// load the first slot of the group alongside its control bytes, so
+			// the usual hit in that slot doesn't wait for a second cache miss
+			int first = index[i];
+			long match = GROUPS.match(ctrl, i, fp);
+			int hits = (int) match;
+			int empties = (int) (match >>> 32);
+			// a probe sequence ends at its first empty slot
+			if (empties != 0)
+				hits &= (empties & -empties) - 1;
+			for (; hits != 0; hits &= hits - 1) {
+				int slot = (i + Integer.numberOfTrailingZeros(hits)) & (M - 1);
+				int p = slot == i ? first : index[slot];
+				if (p >= 0 && keys[p].equals(key)) {
+					listener.onProbe(key, ((slot - home) & (M - 1)) + 1);
+					return slot;
+				}
+			}
+			if (empties != 0) {
+				listener.onProbe(key, scanned + Integer.numberOfTrailingZeros(empties) + 1);
+				return EMPTY;
+			}
+		}
+	}
+
+	// return the entry position of key in the old index, EMPTY if it is not there
+	private int findOld(String key, int h) {
+		for (int i = h & (oldM - 1); oldIndex[i] != EMPTY; i = (i + 1) & (oldM - 1)) {
+			int p = oldIndex[i];
+			if (p != TOMBSTONE && vals[p] != null && hashes[p] == h && keys[p].equals(key))
+				return p;
+		}
+		return EMPTY;
+	}
+
+	// resize the hash table to the given capacity, packing the entries and
+	// re-hashing all of the keys in the order of insertion
 	private void resize(int capacity) {
-		PHPArray<V> temp = new PHPArray<V>(capacity);
+		listener.onResize(N, M, capacity);
+
+		// a packed array grows in place unless its holes no longer fit
+		if (packed && used > entryCapacity(capacity))
+			convertToHash();
+		if (packed) {
+			// growEntries() has usually made the array long enough already
+			finishMigration();
+			boolean shrink = capacity < M;
+			M = capacity;
+			if (shrink || vals.length < entryCapacity(M))
+				vals = Arrays.copyOf(vals, entryCapacity(M));
+			return;
+		}
+		finishMigration();
+		if (incremental && capacity > M) {
+			startMigration(capacity);
+			return;
+		}
 
-		// rehash the entries in the order of insertion
-		Node<V> current = head;
-		while (current != null) {
-			temp.put(current.key, current.value);
-			current = current.next;
+		String[] oldKeys = keys;
+		V[] oldVals = vals;
+		int[] oldHashes = hashes;
+		int oldUsed = used;
+
+		M = capacity;
+		allocateEntries(entryCapacity(M));
+		copyLive(oldKeys, oldVals, oldHashes, oldUsed);
+		rebuildIndex();
+	}
+
+	// begin an incremental resize: the entries keep their positions, the
+	// current index is kept for lookups and a new empty index takes inserts
+	private void startMigration(int capacity) {
+		oldIndex = index;
+		oldM = M;
+		M = capacity;
+		// growEntries() has usually made the entry arrays long enough and
+		// prepared the new index already
+		int n = entryCapacity(M);
+		if (vals.length < n) {
+			keys = Arrays.copyOf(keys, n);
+			vals = Arrays.copyOf(vals, n);
+			hashes = Arrays.copyOf(hashes, n);
 		}
-		entries = temp.entries;
-		head = temp.head;
-		tail = temp.tail;
-		M = temp.M;
+		if (nextIndex != null && nextIndex.length == M) {
+			index = nextIndex;
+			ctrl = nextCtrl;
+			nextIndex = null;
+			nextCtrl = null;
+		} else
+			newTable();
+		tombstones = 0;
+		migrated = 0;
+		migrateEnd = used;
 	}
 
-	// rehash a node while keeping it in place in the linked list
-	private void rehash(Node<V> node) {
-		// TODO Write the implementation of this function
-		int i;
-		for (i = hash(node.key); entries[i] != null; i = (i + 1) % M) {
+	// move up to steps more entry positions from the old index into the new one
+	private void migrate(int steps) {
+		int end = Math.min(migrateEnd, migrated + steps);
+		for (; migrated < end; migrated++) {
+			if (vals[migrated] != null)
+				insertIndex(migrated);
+		}
+		if (migrated >= migrateEnd)
+			oldIndex = null;
+	}
 
+	// complete any incremental resize in progress
+	private void finishMigration() {
+		if (oldIndex != null)
+			migrate(migrateEnd - migrated);
+		if (nextVals != null) {
+			while (allocateNext())
+				;
+			growEntries(Integer.MAX_VALUE);
 		}
-		// check if the key pairs need to rehash
-		System.out.println("           " + "key " + node.key + " rehashed...");
-		System.out.println();
-		entries[i] = node;
 	}
 
-	// delete the key (and associated value) from the symbol table
-	public void unset(String key) {
-		if (get(key) == null)
+	// Incremental resize: starting 3/4 of the way to the next doubling,
+	// allocate the longer entry arrays and the index that doubling needs, one
+	// per put() so no put() zeroes more than one of them, then copy up to steps
+	// more entry positions and set 4 * steps more index slots EMPTY per call.
+	// The entry arrays are switched to as soon as they hold every position and
+	// the index is complete, so no put() copies the entry arrays whole or
+	// fills the new index.  A position already copied is written to both; see
+	// storeValue() and clearEntry().
+	private void growEntries(int steps) {
+		if (nextVals == null && (N < maxLoad(M) * 3 / 4 || vals.length >= entryCapacity(2 * M)))
+			return;
+		if (allocateNext())
 			return;
+		int end = (int) Math.min(used, (long) copied + steps);
+		System.arraycopy(vals, copied, nextVals, copied, end - copied);
+		if (!packed) {
+			System.arraycopy(keys, copied, nextKeys, copied, end - copied);
+			System.arraycopy(hashes, copied, nextHashes, copied, end - copied);
+			int to = (int) Math.min(nextIndex.length, cleared + 4L * steps);
+			Arrays.fill(nextIndex, cleared, to, EMPTY);
+			// ctrl also takes its GROUP repeated bytes with the last slots
+			if (nextCtrl != null)
+				Arrays.fill(nextCtrl, cleared, to == nextIndex.length ? nextCtrl.length : to, GroupProbe.EMPTY);
+			cleared = to;
+		}
+		copied = end;
+		if (copied == used && (packed || cleared == nextIndex.length)) {
+			vals = nextVals;
+			if (!packed) {
+				keys = nextKeys;
+				hashes = nextHashes;
+			}
+			// nextIndex waits for startMigration()
+			nextKeys = null;
+			nextVals = null;
+			nextHashes = null;
+			copied = 0;
+		}
+	}
+
+	// allocate the next array growEntries() fills, returning false once they
+	// all exist
+	private boolean allocateNext() {
+		int n = entryCapacity(2 * M);
+		if (nextVals == null) {
+			@SuppressWarnings("unchecked")
+			V[] temp = (V[]) new Object[n];
+			nextVals = temp;
+		} else if (packed)
+			return false;
+		else if (nextKeys == null)
+			nextKeys = new String[n];
+		else if (nextHashes == null)
+			nextHashes = new int[n];
+		else if (nextIndex == null) {
+			nextIndex = new int[2 * M];
+			cleared = 0;
+		} else if (probing == Probing.CONTROL_BYTES && nextCtrl == null)
+			nextCtrl = new byte[2 * M + GroupProbe.GROUP];
+		else
+			return false;
+		return true;
+	}
+
+	// forget the arrays growEntries() was filling, which the caller replaces
+	private void dropNextEntries() {
+		nextKeys = null;
+		nextVals = null;
+		nextHashes = null;
+		copied = 0;
+		nextIndex = null;
+		nextCtrl = null;
+	}
+
+	// set the value at entry position p
+	private void storeValue(int p, V val) {
+		vals[p] = val;
+		if (p < copied)
+			nextVals[p] = val;
+	}
+
+	// turn entry position p into a hole
+	private void clearEntry(int p) {
+		if (!packed)
+			keys[p] = null;
+		vals[p] = null;
+		if (p < copied) {
+			if (!packed)
+				nextKeys[p] = null;
+			nextVals[p] = null;
+		}
+	}
 
-		// find position i of key
-		int i = hash(key);
-		while (!key.equals(entries[i].key)) {
-			i = (i + 1) % M;
-		}
-
-		// delete node from hash table
-		Node<V> toDelete = entries[i];
-		entries[i] = null;
-		// TODO: delete the node from the linked list in O(1)
-		if (toDelete == head && toDelete == tail) {
-			head = tail;
-			head = null;
-			tail = null;
-		} else if (toDelete == head) {
-			toDelete.next.prev = null;
-			head = head.next;
-			// toDelete.next = null;
-		} else if (toDelete == tail) {
-			tail.prev.next = null;
-			tail = tail.prev;
-			// toDelete.prev = null;
+	// squeeze the holes left by unset() out of the entry arrays
+	private void compact() {
+		finishMigration();
+		String[] oldKeys = keys;
+		V[] oldVals = vals;
+		int[] oldHashes = hashes;
+		int oldUsed = used;
+
+		allocateEntries(keys.length);
+		copyLive(oldKeys, oldVals, oldHashes, oldUsed);
+		rebuildIndex();
+	}
+
+	// append the live entries of the given arrays to the (empty) entry arrays
+	private void copyLive(String[] oldKeys, V[] oldVals, int[] oldHashes, int oldUsed) {
+		used = 0;
+		for (int p = 0; p < oldUsed; p++) {
+			if (oldVals[p] == null)
+				continue;
+			keys[used] = oldKeys[p];
+			vals[used] = oldVals[p];
+			hashes[used] = oldHashes[p];
+			used++;
+		}
+	}
+
+	// re-hash every entry into a fresh index of size M, which also finishes
+	// any incremental resize and drops all tombstones
+	private void rebuildIndex() {
+		// an index of the right size is cleared rather than replaced
+		if (index != null && index.length == M) {
+			Arrays.fill(index, EMPTY);
+			if (ctrl != null)
+				Arrays.fill(ctrl, GroupProbe.EMPTY);
 		} else {
-			toDelete.prev.next = toDelete.next;
-			toDelete.next.prev = toDelete.prev;
+			newTable();
+		}
+		oldIndex = null;
+		tombstones = 0;
+		for (int p = 0; p < used; p++) {
+			if (vals[p] != null)
+				insertIndex(p);
+		}
+	}
+
+	// put entry position p into the first free slot of its probe sequence
+	private void insertIndex(int p) {
+		if (probing == Probing.ROBIN_HOOD) {
+			placeRobinHood(hash(hashes[p]), 0, p);
+			return;
+		}
+		int i;
+		for (i = hash(hashes[p]); index[i] != EMPTY && index[i] != TOMBSTONE; i = (i + 1) & (M - 1)) {
+		}
+		if (index[i] == TOMBSTONE)
+			tombstones--;
+		setSlot(i, p);
+	}
+
+	// Robin Hood insert of entry position p at slot i, d slots from its home:
+	// whenever the entry in a slot is closer to its home than the one being
+	// placed, they trade places and the displaced entry moves on
+	private void placeRobinHood(int i, int d, int p) {
+		while (index[i] != EMPTY) {
+			int q = index[i];
+			int dq = distance(i, q);
+			if (dq < d) {
+				setSlot(i, p);
+				p = q;
+				d = dq;
+			}
+			i = (i + 1) & (M - 1);
+			d++;
+		}
+		setSlot(i, p);
+	}
+
+	// how far the entry at position p, stored in slot i, is from its home slot
+	private int distance(int i, int p) {
+		return (i - hash(hashes[p])) & (M - 1);
+	}
+
+	// fill the slot i just emptied by moving later keys of its cluster back
+	// toward their home slots, keeping their positions in insertion order
+	private void shiftBack(int i) {
+		if (probing == Probing.ROBIN_HOOD) {
+			// every key up to the next one at home moves back exactly one slot
+			for (int j = (i + 1) & (M - 1); index[j] != EMPTY && distance(j, index[j]) > 0; j = (j + 1) & (M - 1)) {
+				listener.onRehash(keys[index[j]]);
+				setSlot(i, index[j]);
+				setSlot(j, EMPTY);
+				i = j;
+			}
+			return;
+		}
+		for (int j = (i + 1) & (M - 1); index[j] != EMPTY; j = (j + 1) & (M - 1)) {
+			int p = index[j];
+			int home = hash(hashes[p]);
+			listener.onRehash(keys[p]);
+			if (Hashing.canShiftBack(home, i, j)) {
+				setSlot(i, p);
+				setSlot(j, EMPTY);
+				i = j;
+			}
+		}
+	}
 
+	// delete the key (and associated value) from the symbol table
+	public void unset(String key) {
+		if (shared != null)
+			unshare();
+		if (packed) {
+			unsetPacked(Hashing.packedKey(key));
+			return;
 		}
-		toDelete.prev = null;
-		toDelete.next = null;
 
-		// rehash all keys in same cluster
-		i = (i + 1) % M;
-		while (entries[i] != null) {
-			// delete and reinsert
-			Node<V> nodeToRehash = entries[i];
-			entries[i] = null;
-			rehash(nodeToRehash);
-			i = (i + 1) % M;
+		if (oldIndex != null)
+			migrate(MIGRATE_STEP);
+
+		// find position i of key, or its entry p if it is only in the old index
+		int i = find(key);
+		int p;
+		if (i != EMPTY)
+			p = index[i];
+		else if (oldIndex != null)
+			p = findOld(key, Hashing.spread(key.hashCode()));
+		else
+			p = EMPTY;
+		if (p == EMPTY)
+			return;
+
+		// leave a hole in insertion order, the old index is never modified
+		clearEntry(p);
+		trimUsed();
+		if (migrateEnd > used)
+			migrateEnd = used;
+
+		// delete the entry from the index with a single probe
+		if (i != EMPTY) {
+			if (deletion == Deletion.TOMBSTONE) {
+				setSlot(i, TOMBSTONE);
+				tombstones++;
+			} else {
+				setSlot(i, EMPTY);
+				shiftBack(i);
+			}
 		}
 
 		N--;
@@ -176,76 +803,420 @@ public class PHPArray<V> implements Iterable<V> {
 	}
 
 	public void unset(int key) {
+		if (shared != null)
+			unshare();
+		if (packed) {
+			unsetPacked(key);
+			return;
+		}
 		String Key = Integer.toString(key);
 		unset(Key);
 	}
 
+	// delete every key in keyList, repairing the hash index once at the end
+	// instead of once per key; returns the number of keys deleted
+	public int unsetAll(Iterable<String> keyList) {
+		if (shared != null)
+			unshare();
+		int before = N;
+		if (packed) {
+			// unsetPacked() could shrink the array out of the packed layout
+			// halfway through, so only make holes and shrink once at the end
+			for (String key : keyList) {
+				int k = Hashing.packedKey(key);
+				if (k >= 0 && k < used && vals[k] != null)
+					removeEntry(k);
+			}
+			afterBulkRemove();
+			return before - N;
+		}
+
+		finishMigration();
+		for (String key : keyList) {
+			int i = find(key);
+			if (i == EMPTY)
+				continue;
+			removeEntry(index[i]);
+			setSlot(i, TOMBSTONE);
+			tombstones++;
+		}
+		if (deletion == Deletion.BACKWARD_SHIFT && tombstones > 0)
+			rebuildIndex();
+		afterBulkRemove();
+		return before - N;
+	}
+
+	// delete every entry the filter accepts in one pass over insertion order,
+	// then re-hash once; returns the number of entries deleted
+	public int removeIf(BiPredicate<String, ? super V> filter) {
+		if (shared != null)
+			unshare();
+		int before = N;
+		for (int p = 0; p < used; p++) {
+			if (vals[p] != null && filter.test(keyAt(p), vals[p]))
+				removeEntry(p);
+		}
+		if (!packed && N != before)
+			rebuildIndex();
+		afterBulkRemove();
+		return before - N;
+	}
+
+	// turn entry position p into a hole and count it gone
+	private void removeEntry(int p) {
+		clearEntry(p);
+		N--;
+	}
+
+	// drop the holes at the end of the entry arrays.  The loop counts down a
+	// local and stores it once: C2 in JDK 21.0.1 can compile the same loop on
+	// the field into one that never ends (TrimCheck reproduces it).
+	private void trimUsed() {
+		int u = used;
+		while (u > 0 && vals[u - 1] == null)
+			u--;
+		used = u;
+		// positions appended from here on are copied afresh
+		if (copied > used)
+			copied = used;
+	}
+
+	// trim trailing holes and shrink after unsetAll() or removeIf()
+	private void afterBulkRemove() {
+		trimUsed();
+		if (N > 0 && N <= M / 8)
+			resize(M / 2);
+	}
+
+	// delete integer key k from the packed layout
+	private void unsetPacked(int k) {
+		if (k < 0 || k >= used || vals[k] == null)
+			return;
+		clearEntry(k);
+		trimUsed();
+
+		N--;
+
+		// halves size of array if it's 12.5% full or less
+		if (N > 0 && N <= M / 8)
+			resize(M / 2);
+	}
+
 	// hash function for keys - returns value between 0 and M-1
-	private int hash(String key) {
-		return (key.hashCode() & 0x7fffffff) % M;
+	private int hash(int h) {
+		return h & (M - 1);
 	}
 
-	// An inner class to store nodes of a doubly-linked list
-	// Each node contains a (key, value) pair
-	@SuppressWarnings("hiding")
-	private class Node<V> {
-		private String key;
-		private V value;
-		private Node<V> next;
-		private Node<V> prev;
+	// smallest power of two that is at least capacity
+	private static int tableSize(int capacity) {
+		int size = 1;
+		while (size < capacity)
+			size <<= 1;
+		return size;
+	}
 
-		Node(String key, V value) {
-			this(key, value, null, null);
-		}
+	// a fresh index with every slot EMPTY
+	private static int[] newIndex(int size) {
+		int[] table = new int[size];
+		Arrays.fill(table, EMPTY);
+		return table;
+	}
 
-		Node(String key, V value, Node<V> next, Node<V> prev) {
-			this.key = key;
-			this.value = value;
-			this.next = next;
-			this.prev = prev;
+	// replace index (and ctrl) with empty tables of size M; ctrl repeats its
+	// first GROUP bytes at the end so a group never has to wrap around
+	private void newTable() {
+		index = newIndex(M);
+		if (probing == Probing.CONTROL_BYTES) {
+			ctrl = new byte[M + GroupProbe.GROUP];
+			Arrays.fill(ctrl, GroupProbe.EMPTY);
 		}
 	}
 
+	// store entry position p (or EMPTY or TOMBSTONE) in slot i of the index
+	private void setSlot(int i, int p) {
+		index[i] = p;
+		if (ctrl == null)
+			return;
+		byte b = p >= 0 ? fingerprint(hashes[p]) : p == EMPTY ? GroupProbe.EMPTY : GroupProbe.DELETED;
+		for (int j = i; j < ctrl.length; j += M)
+			ctrl[j] = b;
+	}
+
+	// the 7 high bits of a spread hash; hash() uses the low bits
+	private static byte fingerprint(int h) {
+		return (byte) (h >>> 25);
+	}
+
+	// most keys an index of the given size holds before it doubles, always
+	// leaving at least one empty slot to end every probe sequence
+	private int maxLoad(int size) {
+		if (probing == Probing.ROBIN_HOOD)
+			return size - Math.max(1, size / 8);
+		return size / 2;
+	}
+
+	// the index never holds more than maxLoad keys, so one more entry always fits
+	private int entryCapacity(int size) {
+		return maxLoad(size) + 1;
+	}
+
+	private void allocateEntries(int capacity) {
+		dropNextEntries();
+		@SuppressWarnings("unchecked")
+		V[] temp = (V[]) new Object[capacity];
+		vals = temp;
+		keys = new String[capacity];
+		hashes = new int[capacity];
+	}
+
+	// the key stored at entry position p
+	private String keyAt(int p) {
+		return packed ? Integer.toString(p) : keys[p];
+	}
+
 	// inner class to return a new Iterator object
 	public class MyIterator implements Iterator<V> {
-		private Node<V> current;
+		private int current;
 
 		public MyIterator() {
-			current = head;
+			current = nextLive(0);
 		}
 
 		public boolean hasNext() {
-			return current != null;
+			return current < used;
 		}
 
 		public V next() {
-			V result = current.value;
-			current = current.next;
+			if (!hasNext())
+				throw new NoSuchElementException();
+			V result = vals[current];
+			current = nextLive(current + 1);
 			return result;
 		}
 	}
 
 	// inner class implement iterator function Returns new Pair<V> object iterator
 	private class MyPIterator implements Iterator<Pair<V>> {
-		private Node<V> current;
+		private int current;
 
 		public MyPIterator() {
-			current = head;
+			current = nextLive(0);
 		}
 
 		public boolean hasNext() {
-			return current != null;
+			return current < used;
 		}
 
 		@Override
 		public Pair<V> next() {
-			@SuppressWarnings({ "rawtypes", "unchecked" })
-			Pair<V> result = new Pair(current.key, current.value);
-			current = current.next;
+			if (!hasNext())
+				throw new NoSuchElementException();
+			Pair<V> result = new Pair<V>(keyAt(current), vals[current]);
+			current = nextLive(current + 1);
 			return result;
 		}
 	}
 
+	// first entry position at or after p that is not a hole, used if there is none
+	private int nextLive(int p) {
+		while (p < used && vals[p] == null)
+			p++;
+		return p;
+	}
+
+	// last entry position at or before p that is not a hole, -1 if there is none
+	private int prevLive(int p) {
+		while (p >= 0 && vals[p] == null)
+			p--;
+		return p;
+	}
+
+	// Walks the entries in insertion order without allocating anything, and
+	// can change or remove the entry it is on.  It starts before the first
+	// entry; next() moves it on.  Only the String key() of a packed array is
+	// made on demand.  Changing the array other than through the cursor
+	// leaves its place undefined until reset().
+	public final class Cursor {
+		private int current = -1; // entry position, -1 before the first
+		private boolean on; // on a live entry that has not been removed
+
+		private Cursor() {
+		}
+
+		// move to the next entry, false once there are no more
+		public boolean next() {
+			current = nextLive(current + 1);
+			on = current < used;
+			return on;
+		}
+
+		public String key() {
+			check();
+			return keyAt(current);
+		}
+
+		public V value() {
+			check();
+			return vals[current];
+		}
+
+		// replace the value of the entry; like put(), null unsets it
+		public void setValue(V val) {
+			check();
+			if (val == null) {
+				remove();
+				return;
+			}
+			if (shared != null)
+				unshare();
+			storeValue(current, val);
+		}
+
+		// unset the entry; next() moves on to the one after it
+		public void remove() {
+			check();
+			if (shared != null)
+				unshare();
+			V[] before = vals;
+			unset(keyAt(current));
+			on = false;
+			// shrinking a hash array packs its entries, so count the ones
+			// before this one; a packed array keeps its positions
+			if (vals != before && !packed) {
+				int live = 0;
+				for (int p = 0; p < current; p++) {
+					if (before[p] != null)
+						live++;
+				}
+				current = live - 1;
+			}
+		}
+
+		// go back to before the first entry
+		public void reset() {
+			current = -1;
+			on = false;
+		}
+
+		private void check() {
+			if (!on)
+				throw new IllegalStateException("cursor is not on an entry");
+		}
+	}
+
+	// Covers the entries at positions lo..hi-1 and splits that range in half.
+	// Without holes every range knows its exact size; with them only the
+	// whole array does, and the halves estimate theirs.
+	private class EntrySpliterator<E> implements Spliterator<E> {
+		private final IntFunction<E> at; // the element for the entry at a position
+		private int lo, hi;
+		private long size; // exact if SIZED, an estimate otherwise
+		private int characteristics;
+
+		// all of the entries
+		EntrySpliterator(IntFunction<E> at) {
+			this(at, 0, used, N, used == N);
+			characteristics |= SIZED;
+		}
+
+		EntrySpliterator(IntFunction<E> at, int lo, int hi, long size, boolean exact) {
+			this.at = at;
+			this.lo = lo;
+			this.hi = hi;
+			this.size = size;
+			characteristics = ORDERED | NONNULL | (exact ? SIZED | SUBSIZED : 0);
+		}
+
+		public boolean tryAdvance(Consumer<? super E> action) {
+			lo = Math.min(nextLive(lo), hi);
+			if (lo == hi)
+				return false;
+			action.accept(at.apply(lo++));
+			if (size > 0)
+				size--;
+			return true;
+		}
+
+		public void forEachRemaining(Consumer<? super E> action) {
+			for (int p = lo; p < hi; p++) {
+				if (vals[p] != null)
+					action.accept(at.apply(p));
+			}
+			lo = hi;
+			size = 0;
+		}
+
+		public Spliterator<E> trySplit() {
+			int mid = (lo + hi) >>> 1;
+			if (mid <= lo)
+				return null;
+			boolean exact = hasCharacteristics(SUBSIZED);
+			long half = exact ? mid - lo : size >>> 1;
+			EntrySpliterator<E> prefix = new EntrySpliterator<E>(at, lo, mid, half, exact);
+			lo = mid;
+			size -= half;
+			if (!exact)
+				characteristics &= ~SIZED;
+			return prefix;
+		}
+
+		public long estimateSize() {
+			return size;
+		}
+
+		public int characteristics() {
+			return characteristics;
+		}
+	}
+
+	// a read-only view of the entries in insertion order, or in reverse; it
+	// reads the entry arrays as it goes, so it shows every later change
+	private class View<E> extends AbstractCollection<E> implements SequencedCollection<E> {
+		private final IntFunction<E> at; // what the view shows for the entry at a position
+		private final Predicate<Object> has; // contains() without a search, or null
+		private final boolean reversed;
+
+		View(IntFunction<E> at, Predicate<Object> has, boolean reversed) {
+			this.at = at;
+			this.has = has;
+			this.reversed = reversed;
+		}
+
+		public int size() {
+			return N;
+		}
+
+		public boolean contains(Object o) {
+			return has != null ? has.test(o) : super.contains(o);
+		}
+
+		public Iterator<E> iterator() {
+			return new Iterator<E>() {
+				private int current = reversed ? prevLive(used - 1) : nextLive(0);
+
+				public boolean hasNext() {
+					return reversed ? current >= 0 : current < used;
+				}
+
+				public E next() {
+					if (!hasNext())
+						throw new NoSuchElementException();
+					E result = at.apply(current);
+					current = reversed ? prevLive(current - 1) : nextLive(current + 1);
+					return result;
+				}
+			};
+		}
+
+		public SequencedCollection<E> reversed() {
+			return new View<E>(at, has, !reversed);
+		}
+
+		public Spliterator<E> spliterator() {
+			return reversed ? super.spliterator() : new EntrySpliterator<E>(at);
+		}
+	}
+
 	public static class Pair<V> implements Comparable<Pair<V>> {
 		String key;
 		V value;
@@ -264,50 +1235,107 @@ public class PHPArray<V> implements Iterable<V> {
 
 	// iterate over Pair<V> objects and access their Key Value
 	public Pair<V> each() {
-		if (iter == null) {
-			reset();
-		}
-		if (iter.hasNext()) {
-			return iter.next();
-		}
-		return null;
+		if (iter == null)
+			iter = new Cursor();
+		if (!iter.next())
+			return null;
+		return new Pair<V>(iter.key(), iter.value());
+	}
+
+	// a new Cursor before the first entry
+	public Cursor cursor() {
+		return new Cursor();
 	}
 
 	// returns an array list that contains all keys of all nodes in insertion order.
 	public ArrayList<String> keys() {
-		ArrayList<String> keys = new ArrayList<String>();
-		Node<V> temp = head;
-		while (temp != null) {
-			keys.add(temp.key);
-			temp = temp.next;
+		ArrayList<String> list = new ArrayList<String>(N);
+		for (int p = 0; p < used; p++) {
+			if (vals[p] != null)
+				list.add(keyAt(p));
 		}
-		return keys;
+		return list;
 	}
 
 	// returns an array list that contains all values of all nodes in insertion
 	// order.
 	public ArrayList<V> values() {
-		ArrayList<V> values = new ArrayList<V>();
-		Node<V> temp = head;
-		while (temp != null) {
-			values.add(temp.value);
-			temp = temp.next;
+		ArrayList<V> list = new ArrayList<V>(N);
+		for (int p = 0; p < used; p++) {
+			if (vals[p] != null)
+				list.add(vals[p]);
 		}
-		return values;
+		return list;
+	}
+
+	// live, read-only views of the keys, the values and the key-value pairs in
+	// insertion order; unlike keys(), values() and pairs() they copy nothing
+	public SequencedCollection<String> keyView() {
+		return new View<String>(this::keyAt, o -> o instanceof String && get((String) o) != null, false);
+	}
+
+	public SequencedCollection<V> valueView() {
+		return new View<V>(p -> vals[p], null, false);
+	}
+
+	public SequencedCollection<Pair<V>> entryView() {
+		return new View<Pair<V>>(p -> new Pair<V>(keyAt(p), vals[p]), null, false);
 	}
 
 	// print table
 	public void showTable() {
+		finishMigration();
 		System.out.println("\tRaw Hash Table Contents: ");
 		for (int i = 0; i < M; i++) {
-			if (entries[i] == null) {
+			if (packed) {
+				if (i < used && vals[i] != null)
+					System.out.println(i + ": " + "Key: " + i + " Value: " + vals[i]);
+				else
+					System.out.println(i + ": " + null);
+			} else if (index[i] == EMPTY || index[i] == TOMBSTONE) {
 				System.out.println(i + ": " + null);
 			} else {
-				System.out.println(i + ": " + "Key: " + entries[i].key + " Value: " + entries[i].value);
+				int p = index[i];
+				System.out.println(i + ": " + "Key: " + keys[p] + " Value: " + vals[p]);
 			}
 		}
 	}
 
+	// average number of slots a successful lookup examines, 1.0 for a packed array
+	public double meanProbeLength() {
+		if (N == 0)
+			return 0.0;
+		if (packed)
+			return 1.0;
+		finishMigration();
+		long total = 0;
+		for (int i = 0; i < M; i++) {
+			if (index[i] >= 0)
+				total += probeLength(i);
+		}
+		return (double) total / N;
+	}
+
+	// most slots any successful lookup examines
+	public int maxProbeLength() {
+		if (N == 0)
+			return 0;
+		if (packed)
+			return 1;
+		finishMigration();
+		int max = 0;
+		for (int i = 0; i < M; i++) {
+			if (index[i] >= 0)
+				max = Math.max(max, probeLength(i));
+		}
+		return max;
+	}
+
+	// slots examined to find the key stored in slot i, starting from its home slot
+	private int probeLength(int i) {
+		return distance(i, index[i]) + 1;
+	}
+
 	// return current hash table capacity
 	public int length() {
 		return N;
@@ -315,12 +1343,13 @@ public class PHPArray<V> implements Iterable<V> {
 
 	// reset the iterator to head node.
 	public void reset() {
-		iter = new MyPIterator();
+		if (iter != null)
+			iter.reset();
 	}
 
 	// return an arraylist that contains pair<V> of all nodes
 	public ArrayList<Pair<V>> pairs() {
-		ArrayList<Pair<V>> pairs = new ArrayList<>();
+		ArrayList<Pair<V>> pairs = new ArrayList<>(N);
 		Iterator<Pair<V>> cur = new MyPIterator();
 		while (cur.hasNext()) {
 			pairs.add(cur.next());
@@ -329,12 +1358,230 @@ public class PHPArray<V> implements Iterable<V> {
 
 	}
 
-	// clear table
-	@SuppressWarnings("unchecked")
+	// clear table, an empty array starts out packed
 	public void clear() {
-		entries = (Node<V>[]) new Node[M];
+		empty();
+	}
+
+	// the body of clear(), which the constructor can call without letting a
+	// subclass see a half-built array
+	private void empty() {
+		// fresh arrays, so nothing shared needs copying
+		if (shared != null) {
+			shared.decrementAndGet();
+			shared = null;
+		}
+		@SuppressWarnings("unchecked")
+		V[] temp = (V[]) new Object[entryCapacity(M)];
+		vals = temp;
+		keys = null;
+		hashes = null;
+		dropNextEntries();
+		index = null;
+		ctrl = null;
+		oldIndex = null;
+		packed = true;
 		N = 0;
-		head = tail = null;
+		used = 0;
+	}
+
+	// write the table to out in a binary form readSnapshot() loads without
+	// re-hashing: the capacity and settings, the entries in insertion order
+	// with their hashes, then the hash index itself; codec writes the values
+	public void writeSnapshot(WritableByteChannel out, ValueCodec<? super V> codec) throws IOException {
+		finishMigration();
+		ByteBuffer buf = ByteBuffer.allocateDirect(SNAPSHOT_BUFFER);
+		buf.putInt(SNAPSHOT_MAGIC);
+		buf.putInt(SNAPSHOT_VERSION);
+		buf.put((byte) probing.ordinal());
+		buf.put((byte) deletion.ordinal());
+		buf.put((byte) (packed ? 1 : 0));
+		buf.putInt(M);
+		buf.putInt(N);
+		buf.putInt(packed ? used : N);
+
+		if (packed) {
+			// the keys are the positions, so holes are kept and flagged
+			for (int p = 0; p < used; p++) {
+				buf = reserve(buf, out, 1);
+				buf.put((byte) (vals[p] == null ? 0 : 1));
+				if (vals[p] != null)
+					buf = writeValue(buf, out, codec, vals[p]);
+			}
+		} else {
+			// entries are written without holes, so index positions shift down
+			int[] renumber = used == N ? null : new int[used];
+			int q = 0;
+			for (int p = 0; p < used; p++) {
+				if (vals[p] == null)
+					continue;
+				if (renumber != null)
+					renumber[p] = q;
+				q++;
+				buf = writeKey(buf, out, keys[p], hashes[p]);
+				buf = writeValue(buf, out, codec, vals[p]);
+			}
+			for (int i = 0; i < M; i++) {
+				buf = reserve(buf, out, 4);
+				int p = index[i];
+				buf.putInt(p >= 0 && renumber != null ? renumber[p] : p);
+			}
+		}
+		buf.flip();
+		while (buf.hasRemaining())
+			out.write(buf);
+	}
+
+	// load a table written by writeSnapshot(), reading the values with codec;
+	// the arrays are sized from the stored capacity and the hash index is read
+	// back as it was, so no key is hashed again
+	public static <V> PHPArray<V> readSnapshot(ReadableByteChannel in, ValueCodec<V> codec) throws IOException {
+		ByteBuffer buf = ByteBuffer.allocateDirect(SNAPSHOT_BUFFER).flip();
+		buf = fill(buf, in, 23);
+		if (buf.getInt() != SNAPSHOT_MAGIC)
+			throw new IOException("not a PHPArray snapshot");
+		int version = buf.getInt();
+		if (version != SNAPSHOT_VERSION)
+			throw new IOException("unsupported PHPArray snapshot version " + version);
+		int probing = buf.get();
+		int deletion = buf.get();
+		boolean packed = buf.get() != 0;
+		int M = buf.getInt();
+		int N = buf.getInt();
+		int used = buf.getInt();
+		if (probing < 0 || probing >= Probing.values().length || deletion < 0 || deletion >= Deletion.values().length
+				|| M <= 0)
+			throw new IOException("corrupt PHPArray snapshot");
+		// setDeletion() refuses tombstones under Robin Hood probing
+		if (Probing.values()[probing] == Probing.ROBIN_HOOD && Deletion.values()[deletion] == Deletion.TOMBSTONE)
+			throw new IOException("corrupt PHPArray snapshot");
+
+		PHPArray<V> a = new PHPArray<V>(M, Probing.values()[probing]);
+		if (a.M != M || N > a.maxLoad(M) || used > a.entryCapacity(M) || (!packed && used != N))
+			throw new IOException("corrupt PHPArray snapshot");
+		a.deletion = Deletion.values()[deletion];
+		a.N = N;
+		a.used = used;
+		if (packed) {
+			for (int p = 0; p < used; p++) {
+				buf = fill(buf, in, 1);
+				if (buf.get() != 0)
+					buf = readValue(buf, in, codec, a.vals, p);
+			}
+			return a;
+		}
+
+		a.packed = false;
+		a.allocateEntries(a.entryCapacity(M));
+		byte[] scratch = new byte[64];
+		for (int p = 0; p < N; p++) {
+			buf = fill(buf, in, 4);
+			int n = buf.getInt();
+			buf = fill(buf, in, n + 4);
+			if (scratch.length < n)
+				scratch = new byte[Math.max(n, 2 * scratch.length)];
+			buf.get(scratch, 0, n);
+			a.keys[p] = new String(scratch, 0, n, StandardCharsets.UTF_8);
+			a.hashes[p] = buf.getInt();
+			buf = readValue(buf, in, codec, a.vals, p);
+		}
+		a.newTable();
+		for (int i = 0; i < M; i++) {
+			buf = fill(buf, in, 4);
+			int p = buf.getInt();
+			if (p >= N || p < TOMBSTONE)
+				throw new IOException("corrupt PHPArray snapshot");
+			if (p == TOMBSTONE)
+				a.tombstones++;
+			a.setSlot(i, p);
+		}
+		return a;
+	}
+
+	// write a key as its UTF-8 length and bytes followed by its hash
+	private static ByteBuffer writeKey(ByteBuffer buf, WritableByteChannel out, String key, int h) throws IOException {
+		boolean ascii = true;
+		for (int c = 0; c < key.length() && ascii; c++)
+			ascii = key.charAt(c) < 0x80;
+		byte[] kb = ascii ? null : key.getBytes(StandardCharsets.UTF_8);
+		int n = ascii ? key.length() : kb.length;
+		buf = reserve(buf, out, n + 8);
+		buf.putInt(n);
+		if (ascii) {
+			for (int c = 0; c < n; c++)
+				buf.put((byte) key.charAt(c));
+		} else
+			buf.put(kb);
+		buf.putInt(h);
+		return buf;
+	}
+
+	// write a value with codec, preceded by its size unless the codec's is fixed
+	private static <T> ByteBuffer writeValue(ByteBuffer buf, WritableByteChannel out, ValueCodec<? super T> codec,
+			T value) throws IOException {
+		int fixed = codec.fixedSize();
+		int n = fixed >= 0 ? fixed : codec.size(value);
+		buf = reserve(buf, out, n + 4);
+		if (fixed < 0)
+			buf.putInt(n);
+		int end = buf.position() + n;
+		codec.write(value, buf);
+		if (buf.position() != end)
+			throw new IllegalStateException("codec wrote " + (buf.position() + n - end) + " bytes, not " + n);
+		return buf;
+	}
+
+	// read a value with codec into vals[p]
+	private static <T> ByteBuffer readValue(ByteBuffer buf, ReadableByteChannel in, ValueCodec<T> codec, Object[] vals,
+			int p) throws IOException {
+		int n = codec.fixedSize();
+		if (n < 0) {
+			buf = fill(buf, in, 4);
+			n = buf.getInt();
+		}
+		buf = fill(buf, in, n);
+		int limit = buf.limit();
+		int end = buf.position() + n;
+		buf.limit(end);
+		vals[p] = codec.read(buf, n);
+		buf.limit(limit).position(end);
+		return buf;
+	}
+
+	// make room for n more bytes in buf, writing out what it holds if needed;
+	// returns a bigger buffer if n doesn't fit in this one
+	private static ByteBuffer reserve(ByteBuffer buf, WritableByteChannel out, int n) throws IOException {
+		if (buf.remaining() >= n)
+			return buf;
+		buf.flip();
+		while (buf.hasRemaining())
+			out.write(buf);
+		buf.clear();
+		return buf.capacity() >= n ? buf : ByteBuffer.allocateDirect(n);
+	}
+
+	// make sure buf holds at least n unread bytes, reading more from in if
+	// needed; returns a bigger buffer if n doesn't fit in this one
+	private static ByteBuffer fill(ByteBuffer buf, ReadableByteChannel in, int n) throws IOException {
+		if (buf.remaining() >= n)
+			return buf;
+		if (buf.capacity() < n)
+			buf = ByteBuffer.allocateDirect(n).put(buf);
+		else
+			buf.compact();
+		while (buf.position() < n) {
+			if (in.read(buf) < 0)
+				throw new EOFException("PHPArray snapshot is truncated");
+		}
+		return buf.flip();
+	}
+
+	// throw a ClassCastException unless every value is an instance of type
+	private void requireValues(Class<?> type) {
+		for (int p = 0; p < used; p++) {
+			if (vals[p] != null && !type.isInstance(vals[p]))
+				throw new ClassCastException();
+		}
 	}
 
 	// Sort the values using the Comparable interface (if the data is not
@@ -344,88 +1591,452 @@ public class PHPArray<V> implements Iterable<V> {
 	// should iterate in sorted order)
 
 	public void sort() throws ClassCastException {
-		reset();
-		ArrayList<Pair<V>> list = (ArrayList<Pair<V>>) pairs();
+		requireValues(Comparable.class);
+		sortValues(naturalOrder(), false);
+	}
 
-		for (Node<V> n = head; n != null; n = n.next) {
-			if (!(n.value instanceof Comparable))
-				throw new ClassCastException();
-		}
-		Collections.sort(list);
-		clear();
-		for (int i = 0; i < list.size(); i++) {
-			put(i, list.get(i).value);
-		}
+	// sort() in descending order
+	public void rsort() throws ClassCastException {
+		requireValues(Comparable.class);
+		sortValues(naturalOrder().reversed(), false);
+	}
 
+	// sort() with the values ordered by order instead of their natural ordering
+	public void usort(Comparator<? super V> order) {
+		sortValues(order, false);
 	}
+
 	// The asort() method will sort the values just like sort(), but instead of
 	// reassigning the keys to ints starting at 0, it will keep the keys as they
 	// were.
 
 	public void asort() {
+		requireValues(Comparable.class);
+		sortValues(naturalOrder(), true);
+	}
+
+	// asort() in descending order
+	public void arsort() throws ClassCastException {
+		requireValues(Comparable.class);
+		sortValues(naturalOrder().reversed(), true);
+	}
+
+	// asort() with the values ordered by order instead of their natural ordering
+	public void uasort(Comparator<? super V> order) {
+		sortValues(order, true);
+	}
+
+	// sort the entries by key, the way PHP orders keys: two int keys compare
+	// as numbers, anything else compares as strings
+	public void ksort() {
+		// the keys of a packed array are 0..length()-1 in order already
+		if (packed) {
+			reset();
+			return;
+		}
+		sortByKey(false);
+	}
+
+	// ksort() in descending order
+	public void krsort() {
+		sortByKey(true);
+	}
+
+	// sort the entries by key, with the keys ordered by order
+	public void uksort(Comparator<? super String> order) {
+		sortByKey((a, b) -> order.compare((String) a, (String) b));
+	}
+
+	// the k largest values by order with their keys, largest first, leaving
+	// the array as it is; equal values come in array order
+	public ArrayList<Pair<V>> topK(int k, Comparator<? super V> order) {
+		return pairsAt(select(k, order.reversed()));
+	}
+
+	// the k smallest values by order with their keys, smallest first
+	public ArrayList<Pair<V>> bottomK(int k, Comparator<? super V> order) {
+		return pairsAt(select(k, order));
+	}
+
+	// move the k smallest values, in order and with their keys, to the front
+	// of the array; the other entries follow in the order they were in
+	public void partialSort(int k) throws ClassCastException {
+		requireValues(Comparable.class);
+		partialSort(k, naturalOrder());
+	}
+
+	// partialSort() with the values ordered by order.  Only k entries are
+	// sorted and the index is rebuilt in place, so it takes O(N log k) time
+	// and O(k) space besides, except on a packed array: moving its entries
+	// breaks the keys-are-positions layout, so it is first converted to a
+	// hashed one, which takes O(N) space for the keys, hashes and index.
+	public void partialSort(int k, Comparator<? super V> order) {
+		int[] sel = select(k, order);
+		k = sel.length;
+		if (packed)
+			convertToHash();
+		finishMigration();
+		if (shared != null)
+			unshare();
+
+		// set the chosen entries aside, leaving holes
+		String[] selKeys = new String[k];
+		int[] selHashes = new int[k];
+		@SuppressWarnings("unchecked")
+		V[] selVals = (V[]) new Object[k];
+		for (int i = 0; i < k; i++) {
+			int p = sel[i];
+			selKeys[i] = keys[p];
+			selHashes[i] = hashes[p];
+			selVals[i] = vals[p];
+			vals[p] = null;
+		}
+
+		// squeeze the others together, move them up past the first k and
+		// put the chosen ones in front
+		int rest = 0;
+		for (int p = 0; p < used; p++) {
+			if (vals[p] == null)
+				continue;
+			keys[rest] = keys[p];
+			hashes[rest] = hashes[p];
+			vals[rest++] = vals[p];
+		}
+		System.arraycopy(keys, 0, keys, k, rest);
+		System.arraycopy(hashes, 0, hashes, k, rest);
+		System.arraycopy(vals, 0, vals, k, rest);
+		System.arraycopy(selKeys, 0, keys, 0, k);
+		System.arraycopy(selHashes, 0, hashes, 0, k);
+		System.arraycopy(selVals, 0, vals, 0, k);
+		Arrays.fill(keys, N, used, null);
+		Arrays.fill(vals, N, used, null);
+		used = N;
+		rebuildIndex();
 		reset();
-		ArrayList<Pair<V>> list = (ArrayList<Pair<V>>) pairs();
-		for (Node<V> n = head; n != null; n = n.next) {
-			if (!(n.value instanceof Comparable))
-				throw new ClassCastException();
+	}
+
+	// the positions of the k smallest values by order (all of them if there
+	// are fewer), smallest first and equal values by position.  A max-heap
+	// holds the k smallest seen so far, so each entry costs O(log k).
+	private int[] select(int k, Comparator<? super V> order) {
+		int[] heap = new int[Math.max(0, Math.min(k, N))];
+		int size = 0;
+		for (int p = nextLive(0); p < used; p = nextLive(p + 1)) {
+			if (size < heap.length)
+				siftUp(heap, size++, p, order);
+			else if (size > 0 && before(p, heap[0], order))
+				siftDown(heap, 0, size, p, order);
 		}
-		Collections.sort(list);
-		clear();
-		for (int i = 0; i < list.size(); i++) {
-			put(list.get(i).key, list.get(i).value);
+		// take the largest off to the end until the heap is empty
+		for (int end = size - 1; end > 0; end--) {
+			int p = heap[end];
+			heap[end] = heap[0];
+			siftDown(heap, 0, end, p, order);
+		}
+		return heap;
+	}
+
+	// does the value at position p come first by order, or by position if
+	// the values are equal?
+	private boolean before(int p, int q, Comparator<? super V> order) {
+		int c = order.compare(vals[p], vals[q]);
+		return c < 0 || c == 0 && p < q;
+	}
+
+	// put p in the hole at heap[i], moving it up past the parents it follows
+	private void siftUp(int[] heap, int i, int p, Comparator<? super V> order) {
+		while (i > 0) {
+			int parent = (i - 1) >>> 1;
+			if (!before(heap[parent], p, order))
+				break;
+			heap[i] = heap[parent];
+			i = parent;
+		}
+		heap[i] = p;
+	}
+
+	// put p in the hole at heap[i] of a heap of the given size, moving it down
+	// past the children that follow it
+	private void siftDown(int[] heap, int i, int size, int p, Comparator<? super V> order) {
+		for (int child = 2 * i + 1; child < size; child = 2 * i + 1) {
+			if (child + 1 < size && before(heap[child], heap[child + 1], order))
+				child++;
+			if (!before(p, heap[child], order))
+				break;
+			heap[i] = heap[child];
+			i = child;
+		}
+		heap[i] = p;
+	}
+
+	// the entries at the given positions as key-value pairs
+	private ArrayList<Pair<V>> pairsAt(int[] positions) {
+		ArrayList<Pair<V>> list = new ArrayList<Pair<V>>(positions.length);
+		for (int p : positions)
+			list.add(new Pair<V>(keyAt(p), vals[p]));
+		return list;
+	}
+
+	// compares values by their natural ordering
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private static Comparator<Object> naturalOrder() {
+		return (a, b) -> ((Comparable) a).compareTo(b);
+	}
+
+	// orders the sort items of ksort(): a Long for an int key, the key itself
+	// for any other; like PHP 8, an int against a non-numeric string compares
+	// as strings
+	private static final Comparator<Object> KEY_ORDER = (a, b) -> {
+		if (a instanceof Long && b instanceof Long)
+			return Long.compare((Long) a, (Long) b);
+		return a.toString().compareTo(b.toString());
+	};
+
+	// the key as a Long if PHP would have stored it as an int key, otherwise
+	// the key itself; ksort() parses each key once here instead of in every
+	// comparison
+	private static Object intKey(String key, long[] parsed) {
+		return intKey(key, parsed, 0) ? (Object) parsed[0] : key;
+	}
+
+	// whether PHP would have stored key as an int key (a decimal integer
+	// without leading zeros or a plus sign), putting its value in parsed[i]
+	private static boolean intKey(String key, long[] parsed, int i) {
+		int len = key.length();
+		int start = len > 1 && key.charAt(0) == '-' ? 1 : 0;
+		if (len == start || len - start > 19 || (key.charAt(start) == '0' && len > 1))
+			return false;
+		long n = 0;
+		for (int c = start; c < len; c++) {
+			char ch = key.charAt(c);
+			if (ch < '0' || ch > '9')
+				return false;
+			n = 10 * n + (ch - '0');
+			// a 19-digit number may overflow; -0 is not an int key either
+			if (n < 0 && !(start == 1 && n == Long.MIN_VALUE && c == len - 1))
+				return false;
+		}
+		if (start == 1 && n == 0)
+			return false;
+		parsed[i] = start == 0 ? n : -n;
+		return true;
+	}
+
+	// whether every char of s fits in a byte
+	private static boolean isLatin1(String s) {
+		for (int c = 0; c < s.length(); c++) {
+			if (s.charAt(c) > 0xFF)
+				return false;
+		}
+		return true;
+	}
+
+	// sort the values by order; with keepKeys they keep their keys, otherwise
+	// they get new keys starting at 0
+	private void sortValues(Comparator<? super V> order, boolean keepKeys) {
+		// int keys out of order no longer fit the packed layout
+		if (keepKeys && packed)
+			convertToHash();
+		sortByValue(order, keepKeys);
+		if (!keepKeys) {
+			// the keys become the positions, which is the packed layout
+			keys = null;
+			hashes = null;
+			index = null;
+			ctrl = null;
+			tombstones = 0;
+			packed = true;
+		}
+		reset();
+	}
+
+	// reorder the entries stably by order on their values, squeezing out the
+	// holes; with keepKeys false the keys are left for the caller to replace.
+	// Nothing changes until the sort is done, so a comparison that throws
+	// leaves the array as it was.
+	private void sortByValue(Comparator<? super V> order, boolean keepKeys) {
+		finishMigration();
+		@SuppressWarnings("unchecked")
+		V[] items = (V[]) new Object[N];
+		int[] perm = livePositions();
+		for (int k = 0; k < N; k++)
+			items[k] = vals[perm[k]];
+		EntrySort.sort(items, perm, 0, N, order, parallelSortThreshold);
+
+		if (shared != null)
+			unshare();
+		if (keepKeys)
+			moveEntries(perm, false);
+		System.arraycopy(items, 0, vals, 0, N);
+		Arrays.fill(vals, N, used, null);
+		used = N;
+	}
+
+	// reorder the entries stably by order on their keys, squeezing out the
+	// holes
+	private void sortByKey(Comparator<Object> order) {
+		if (packed)
+			convertToHash();
+		finishMigration();
+		Object[] items = new Object[N];
+		int[] perm = livePositions();
+		for (int k = 0; k < N; k++)
+			items[k] = keys[perm[k]];
+		EntrySort.sort(items, perm, 0, N, order, parallelSortThreshold);
+		reorder(perm);
+	}
+
+	// ksort() and krsort().  Keys that are all ints are radix sorted as longs
+	// and keys that are all strings of byte-sized chars are radix sorted a
+	// char at a time; a mix of the two compares differently from pair to
+	// pair, so it takes KEY_ORDER and a comparison sort.  Keys are distinct,
+	// so the descending orders are the ascending ones reversed.
+	private void sortByKey(boolean descending) {
+		if (packed)
+			convertToHash();
+		finishMigration();
+		int[] perm = livePositions();
+		long[] ints = new long[N];
+		int intKeys = 0;
+		boolean latin1 = true;
+		for (int k = 0; k < N; k++) {
+			String key = keys[perm[k]];
+			if (intKey(key, ints, k))
+				intKeys++;
+			else if (latin1)
+				latin1 = isLatin1(key);
+		}
+
+		if (intKeys == N) {
+			EntrySort.radixSort(ints, perm, N);
+		} else if (intKeys == 0 && latin1) {
+			String[] items = new String[N];
+			for (int k = 0; k < N; k++)
+				items[k] = keys[perm[k]];
+			EntrySort.radixSort(items, perm, N);
+		} else {
+			Object[] items = new Object[N];
+			long[] parsed = new long[1];
+			for (int k = 0; k < N; k++)
+				items[k] = intKey(keys[perm[k]], parsed);
+			EntrySort.sort(items, perm, 0, N, descending ? KEY_ORDER.reversed() : KEY_ORDER,
+					parallelSortThreshold);
+			descending = false;
+		}
+		if (descending) {
+			for (int i = 0, j = N - 1; i < j; i++, j--) {
+				int t = perm[i];
+				perm[i] = perm[j];
+				perm[j] = t;
+			}
+		}
+		reorder(perm);
+	}
+
+	// the positions of the live entries, then those of the holes
+	private int[] livePositions() {
+		int[] perm = new int[used];
+		int live = 0;
+		int hole = N;
+		for (int p = 0; p < used; p++) {
+			if (vals[p] != null)
+				perm[live++] = p;
+			else
+				perm[hole++] = p;
+		}
+		return perm;
+	}
+
+	// put the entry at position perm[k] at position k for every k and squeeze
+	// out the holes, which perm lists last
+	private void reorder(int[] perm) {
+		if (shared != null)
+			unshare();
+		moveEntries(perm, true);
+		used = N;
+		reset();
+	}
+
+	// move the key at position perm[k] to position k for every k, and the
+	// value too if withValues, following each cycle of the permutation in
+	// place; the index is redirected to the new positions without re-hashing
+	private void moveEntries(int[] perm, boolean withValues) {
+		int[] moved = new int[used];
+		for (int k = 0; k < used; k++)
+			moved[perm[k]] = k;
+		for (int i = 0; i < M; i++) {
+			if (index[i] >= 0)
+				index[i] = moved[index[i]];
+		}
+
+		// done positions are marked ~p
+		for (int start = 0; start < used; start++) {
+			if (perm[start] < 0 || perm[start] == start)
+				continue;
+			String key = keys[start];
+			int h = hashes[start];
+			V val = vals[start];
+			int k = start;
+			while (perm[k] != start) {
+				int from = perm[k];
+				keys[k] = keys[from];
+				hashes[k] = hashes[from];
+				if (withValues)
+					vals[k] = vals[from];
+				perm[k] = ~from;
+				k = from;
+			}
+			keys[k] = key;
+			hashes[k] = h;
+			if (withValues)
+				vals[k] = val;
+			perm[k] = ~start;
 		}
 	}
 
 	// flip keys and values of the original array in a new PHPArray
 	public PHPArray<String> array_flip() {
 		reset();
-		PHPArray<String> NewArr = new PHPArray<>(M);
-		Node<V> temp = head;
+		PHPArray<String> NewArr = new PHPArray<>(M, probing);
 		// If the value of the original array is not a String, the array_flip() method
 		// should throw a ClassCastException.
 
-		for (Node<V> n = head; n != null; n = n.next) {
-			if (!(n.value instanceof String))
+		for (int p = 0; p < used; p++) {
+			if (vals[p] != null && !(vals[p] instanceof String))
 				throw new ClassCastException("Cannot convert class java.lang.Integer to String ");
 		}
-		/*
-		 * if(!temp.value.getClass().equals(String.class)){ throw new
-		 * ClassCastException( "Cannot convert class java.lang.Integer to String "); }
-		 */
 		// flipped array only the last key will be preserved as a value
-		while (temp != null) {
-			NewArr.put((String) temp.value, temp.key);
-			temp = temp.next;
+		for (int p = 0; p < used; p++) {
+			if (vals[p] != null)
+				NewArr.put((String) vals[p], keyAt(p));
 		}
 		return NewArr;
 	}
 
 	//////// Extra Credit/////
 
-	// Calculate the sum of values in an array
-	public Double array_sum() {
-		reset();
-		ArrayList<V> list = values();
-		Double sum = 0.0;
-
-		for (Node<V> n = head; n != null; n = n.next) {
-			if (!(n.value instanceof Number))
-				throw new ClassCastException();
-		}
+	// Calculate the sum of values in an array: a Long if they are all
+	// integers and it fits, a Double otherwise, as in PHP; throws
+	// ClassCastException if a value is not a Number
+	public Number array_sum() throws ClassCastException {
+		return array_sum(false);
+	}
 
-		for (int i = 0; i < list.size(); i++)
-			sum += ((Number) list.get(i)).doubleValue();
-		return sum;
+	// array_sum() with compensated summation of the float values when
+	// compensated is true, which keeps the rounding error of a long sum from
+	// growing with the number of values
+	public Number array_sum(boolean compensated) throws ClassCastException {
+		reset();
+		return Accumulator.reduce(vals, 0, used, false, compensated, parallelScanThreshold).result();
 	}
 
 	// Return an array with elements in reverse order
 	public PHPArray<V> array_reverse() throws ClassCastException {
 		reset();
-		PHPArray<V> rev = new PHPArray<>(M);
-		Node<V> temp = tail;
-		while (temp != null) {
-			rev.put(temp.key, temp.value);
-			temp = temp.prev;
+		PHPArray<V> rev = new PHPArray<>(M, probing);
+		for (int p = used - 1; p >= 0; p--) {
+			if (vals[p] != null)
+				rev.put(keyAt(p), vals[p]);
 		}
 		return rev;
 	}
@@ -433,59 +2044,139 @@ public class PHPArray<V> implements Iterable<V> {
 	// Shuffle an array
 	public void shuffle() throws ClassCastException {
 		reset();
-		ArrayList<Pair<V>> list = (ArrayList<Pair<V>>) pairs();
-		for (Node<V> n = head; n != null; n = n.next) {
-			if (!(n.value instanceof Comparable))
-				throw new ClassCastException();
+		requireValues(Comparable.class);
+		// the keys stay with their values, which out of order no longer fit
+		// the packed layout
+		if (packed)
+			convertToHash();
+		finishMigration();
+		int[] perm = livePositions();
+		Random rnd = new Random();
+		for (int i = N - 1; i > 0; i--) {
+			int j = rnd.nextInt(i + 1);
+			int t = perm[i];
+			perm[i] = perm[j];
+			perm[j] = t;
 		}
-		Collections.shuffle(list);
-		clear();
+		reorder(perm);
+	}
 
-		for (int i = 0; i < list.size(); i++) {
-			this.put(list.get(i).key, list.get(i).value);
-		}
+	// Calculate the product of values in an array, a Long or a Double like
+	// array_sum()
+	public Number array_product() throws ClassCastException {
+		reset();
+		return Accumulator.reduce(vals, 0, used, true, false, parallelScanThreshold).result();
+	}
+
+	// The entries whose value is in none of the other arrays, with their keys
+	// and in order; values match by equals()
+	public PHPArray<V> array_diff(PHPArray<?>... others) {
+		return filter(Match.VALUE, false, others);
+	}
+
+	// the entries whose key is in none of the other arrays
+	public PHPArray<V> array_diff_key(PHPArray<?>... others) {
+		return filter(Match.KEY, false, others);
+	}
+
+	// the entries that no other array has with the same key and value
+	public PHPArray<V> array_diff_assoc(PHPArray<?>... others) {
+		return filter(Match.ENTRY, false, others);
+	}
+
+	// the entries whose value is in every other array
+	public PHPArray<V> array_intersect(PHPArray<?>... others) {
+		return filter(Match.VALUE, true, others);
 	}
 
-	// Calculate the product of values in an array
-	public Double array_product() {
+	// the entries whose key is in every other array
+	public PHPArray<V> array_intersect_key(PHPArray<?>... others) {
+		return filter(Match.KEY, true, others);
+	}
+
+	// the entries that every other array has with the same key and value
+	public PHPArray<V> array_intersect_assoc(PHPArray<?>... others) {
+		return filter(Match.ENTRY, true, others);
+	}
+
+	// what the array_diff and array_intersect functions look for in the others
+	private enum Match {
+		VALUE, KEY, ENTRY
+	}
+
+	// the entries found by match in every other array (intersect) or in none
+	// of them (diff).  Each test is a hash lookup, into a set of the other
+	// array's values for Match.VALUE, so it takes O(N + M) time instead of
+	// comparing every pair.  Large arrays are tested in parallel, which means
+	// a listener on another array sees its probes from several threads.
+	private PHPArray<V> filter(Match match, boolean intersect, PHPArray<?>[] others) {
 		reset();
-		ArrayList<V> list = values();
-		Double pro = 1.0;
+		List<Set<Object>> valueSets = new ArrayList<Set<Object>>(others.length);
+		for (PHPArray<?> other : others) {
+			// get() would move a pending resize along, which can't be done
+			// from several threads at once
+			other.finishMigration();
+			if (match == Match.VALUE)
+				valueSets.add(new HashSet<Object>(other.valueView()));
+		}
 
-		for (Node<V> n = head; n != null; n = n.next) {
-			if (!(n.value instanceof Number))
-				throw new ClassCastException();
+		boolean[] keep = new boolean[used];
+		IntStream positions = IntStream.range(0, used);
+		if (used >= parallelScanThreshold)
+			positions = positions.parallel();
+		// intersect keeps the entries every other array has, diff the ones
+		// no other array has
+		positions.forEach(p -> {
+			if (vals[p] == null)
+				return;
+			boolean k = true;
+			for (int o = 0; o < others.length && k; o++)
+				k = has(others[o], match == Match.VALUE ? valueSets.get(o) : null, match, p) == intersect;
+			keep[p] = k;
+		});
+
+		PHPArray<V> result = new PHPArray<>(M, probing);
+		for (int p = 0; p < used; p++) {
+			if (!keep[p])
+				continue;
+			if (packed)
+				result.put(p, vals[p]);
+			else
+				result.put(keys[p], vals[p]);
 		}
+		return result;
+	}
 
-		for (int i = 0; i < list.size(); i++)
-			pro *= ((Number) list.get(i)).doubleValue();
-		return pro;
+	// does other have the entry at position p, by match; values holds the
+	// values of other for Match.VALUE
+	private boolean has(PHPArray<?> other, Set<Object> values, Match match, int p) {
+		if (match == Match.VALUE)
+			return values.contains(vals[p]);
+		Object v = packed ? other.get(p) : other.get(keys[p]);
+		return v != null && (match == Match.KEY || v.equals(vals[p]));
 	}
 
 	// Changes the case of all keys in an array
 	// 1 for upper case 2 for lower case
 	public void array_change_key_case(int cases) {
-		Pair<V> curr;
 		reset();
-		ArrayList<Pair<V>> list = pairs();
+		// clear() gives the array new entry arrays, so the entries can be put
+		// back from the old ones without copying them first
+		String[] oldKeys = keys;
+		V[] oldVals = vals;
+		int oldUsed = used;
+		boolean wasPacked = packed;
 		clear();
 
-		if (cases == 1) {
-			for (int i = 0; i < list.size(); i++) {
-				curr = list.get(i);
-				curr.key = (curr.key).toUpperCase();
-				put(curr.key, curr.value);
-			}
-
-		} else if (cases == 2) {
-			for (int i = 0; i < list.size(); i++) {
-				curr = list.get(i);
-				curr.key = (curr.key).toLowerCase();
-				put(curr.key, curr.value);
+		if (cases == 1 || cases == 2) {
+			for (int p = 0; p < oldUsed; p++) {
+				if (oldVals[p] == null)
+					continue;
+				String key = wasPacked ? Integer.toString(p) : oldKeys[p];
+				put(cases == 1 ? key.toUpperCase() : key.toLowerCase(), oldVals[p]);
 			}
 		} else {
 			System.out.println("Please try again.... 1 for upper case, 2 for lower case");
 		}
 	}
-
-}
\ No newline at end of file
+}
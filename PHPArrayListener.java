@@ -0,0 +1,20 @@
+// Receives diagnostics from a PHPArray.  Every method does nothing by default,
+// so a listener only overrides the events it cares about, and an array with no
+// listener attached uses NONE.
+public interface PHPArrayListener {
+	PHPArrayListener NONE = new PHPArrayListener() {
+	};
+
+	// the table is about to change from oldCapacity to newCapacity slots while
+	// holding size key-value pairs
+	default void onResize(int size, int oldCapacity, int newCapacity) {
+	}
+
+	// key was examined while closing the gap left by an unset()
+	default void onRehash(String key) {
+	}
+
+	// a lookup or insert of key looked at probes slots of the table
+	default void onProbe(String key, int probes) {
+	}
+}
@@ -0,0 +1,73 @@
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+
+/**  Speedup of PHPArray's parallel merge sort with the number of threads.  The
+ * same random values are sorted by sort() and asort() in a ForkJoinPool of
+ * parallelism 1, 2, 4 and so on up to the number of processors; a sort run
+ * from inside a pool splits its work across that pool, and with parallelism
+ * 1 it stays sequential.  Each column is the time with that parallelism, and
+ * the speedup is the widest pool's against the single thread.
+ *
+ * Usage: java ParallelSortBench [entries] [rounds]
+ */
+public class ParallelSortBench
+{
+	public static void main(String [] args)
+	{
+		int n = args.length > 0 ? Integer.parseInt(args[0]) : 2000000;
+		int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+		Random r = new Random(3);
+		String[] keys = new String[n];
+		Integer[] vals = new Integer[n];
+		for (int i = 0; i < n; i++)
+		{
+			keys[i] = "k" + i;
+			vals[i] = r.nextInt();
+		}
+
+		List<Integer> widths = new ArrayList<Integer>();
+		int cpus = Runtime.getRuntime().availableProcessors();
+		for (int p = 1; p < cpus; p *= 2)
+			widths.add(p);
+		widths.add(cpus);
+
+		System.out.println(n + " entries, best of " + rounds + " rounds, " + cpus + " processors");
+		System.out.printf("%8s", "sort");
+		for (int p : widths)
+			System.out.printf(" %14s", p + (p == 1 ? " thread" : " threads"));
+		System.out.printf(" %9s%n", "speedup");
+		for (boolean keepKeys : new boolean[] {false, true})
+		{
+			long[] best = new long[widths.size()];
+			Arrays.fill(best, Long.MAX_VALUE);
+			for (int w = 0; w < widths.size(); w++)
+			{
+				ForkJoinPool pool = new ForkJoinPool(widths.get(w));
+				for (int round = 0; round < rounds; round++)
+					best[w] = Math.min(best[w], time(pool, keys, vals, keepKeys));
+				pool.shutdown();
+			}
+			System.out.printf("%8s", keepKeys ? "asort" : "sort");
+			for (long t : best)
+				System.out.printf(" %11.1f ms", t / 1e6);
+			System.out.printf(" %8.2fx%n", (double) best[0] / best[best.length - 1]);
+		}
+	}
+
+	// nanoseconds for one sort of a fresh array, run in pool; a threshold of 1
+	// sorts every run long enough to be worth it in parallel
+	private static long time(ForkJoinPool pool, String[] keys, Integer[] vals, boolean keepKeys)
+	{
+		PHPArray<Integer> A = new PHPArray<Integer>(keys.length);
+		for (int i = 0; i < keys.length; i++)
+			A.put(keys[i], vals[i]);
+		A.setParallelSortThreshold(1);
+		Runnable sort = keepKeys ? A::asort : A::sort;
+		long t = System.nanoTime();
+		pool.submit(sort).join();
+		t = System.nanoTime() - t;
+		if (A.length() != keys.length)
+			throw new AssertionError("the sort lost entries");
+		return t;
+	}
+}
@@ -0,0 +1,285 @@
+import java.util.*;
+
+// Key handling shared by IntPHPArray, LongPHPArray and DoublePHPArray.  Keys
+// use the same layout as PHPArray: entries sit at dense positions in insertion
+// order behind an int[] hash index, and while the keys are exactly 0..n-1 they
+// stay packed with no index at all.  A subclass keeps its values in a
+// primitive array indexed by entry position.
+abstract class PrimitivePHPArray {
+	static final int INIT_CAPACITY = 4;
+	static final int EMPTY = -1; // marks an unused slot of the hash index
+	int N; // number of key-value pairs in the symbol table
+	int M; // size of linear probing table, always a power of two
+	int used; // entry positions handed out so far, including holes
+	boolean packed; // keys are exactly 0..used-1 with no holes
+	int[] index; // positions into the entry arrays, null while packed
+	String[] keys; // keys in insertion order, null marks a hole; null while packed
+	int[] hashes; // spread hashCode() of each key, null while packed
+
+	PrimitivePHPArray(int capacity) {
+		M = 1;
+		while (M < capacity)
+			M <<= 1;
+		packed = true;
+	}
+
+	// grow the value array to hold capacity entries
+	abstract void growValues(int capacity);
+
+	// copy the value at entry position from to position to
+	abstract void moveValue(int from, int to);
+
+	// reset the value at entry position p after its key is unset
+	abstract void clearValue(int p);
+
+	// return the number of key-value pairs
+	public int length() {
+		return N;
+	}
+
+	// does the given key exist in the table?
+	public boolean contains(String key) {
+		return position(key) >= 0;
+	}
+
+	public boolean contains(int key) {
+		return position(key) >= 0;
+	}
+
+	// delete the key (and associated value) from the symbol table
+	public void unset(String key) {
+		if (packed) {
+			int k = Hashing.packedKey(key);
+			if (k < 0 || k >= used)
+				return;
+			// only the last key can go without breaking the packed layout
+			if (k == used - 1) {
+				clearValue(--used);
+				N--;
+				return;
+			}
+			convertToHash();
+		}
+
+		int h = Hashing.spread(key.hashCode());
+		int i;
+		for (i = h & (M - 1); index[i] != EMPTY; i = (i + 1) & (M - 1)) {
+			int p = index[i];
+			if (hashes[p] == h && keys[p].equals(key))
+				break;
+		}
+		if (index[i] == EMPTY)
+			return;
+
+		int p = index[i];
+		keys[p] = null;
+		clearValue(p);
+		// through a local, for the reason given at PHPArray.trimUsed()
+		int u = used;
+		while (u > 0 && keys[u - 1] == null)
+			u--;
+		used = u;
+		index[i] = EMPTY;
+		shiftBack(i);
+		N--;
+	}
+
+	public void unset(int key) {
+		if (packed && key == used - 1 && key >= 0) {
+			clearValue(--used);
+			N--;
+			return;
+		}
+		unset(Integer.toString(key));
+	}
+
+	// returns an array list that contains all keys in insertion order
+	public ArrayList<String> keys() {
+		ArrayList<String> list = new ArrayList<String>(N);
+		for (int p = 0; p < used; p++) {
+			if (packed || keys[p] != null)
+				list.add(keyAt(p));
+		}
+		return list;
+	}
+
+	// clear table
+	public void clear() {
+		packed = true;
+		index = null;
+		keys = null;
+		hashes = null;
+		N = 0;
+		used = 0;
+		growValues(entryCapacity(M));
+	}
+
+	// entry position holding key, -1 if it is not in the table
+	final int position(String key) {
+		if (packed) {
+			int k = Hashing.packedKey(key);
+			return k >= 0 && k < used ? k : -1;
+		}
+		int h = Hashing.spread(key.hashCode());
+		for (int i = h & (M - 1); index[i] != EMPTY; i = (i + 1) & (M - 1)) {
+			int p = index[i];
+			if (hashes[p] == h && keys[p].equals(key))
+				return p;
+		}
+		return -1;
+	}
+
+	final int position(int key) {
+		if (packed)
+			return key >= 0 && key < used ? key : -1;
+		return position(Integer.toString(key));
+	}
+
+	// entry position for key, appending a new entry if key is not there yet
+	final int insert(String key) {
+		if (packed) {
+			int k = Hashing.packedKey(key);
+			if (k >= 0 && k <= used)
+				return insert(k);
+			convertToHash();
+		}
+
+		// double table size if 50% full
+		if (N >= M / 2)
+			resize(2 * M);
+		// squeeze out holes before probing so the slot found stays valid
+		if (used == keys.length)
+			compact(true);
+
+		int h = Hashing.spread(key.hashCode());
+		int i;
+		for (i = h & (M - 1); index[i] != EMPTY; i = (i + 1) & (M - 1)) {
+			int p = index[i];
+			if (hashes[p] == h && keys[p].equals(key))
+				return p;
+		}
+		keys[used] = key;
+		hashes[used] = h;
+		index[i] = used;
+		N++;
+		return used++;
+	}
+
+	final int insert(int key) {
+		if (packed && key >= 0 && key <= used) {
+			if (key < used)
+				return key;
+			if (N >= M / 2)
+				resize(2 * M);
+			N++;
+			return used++;
+		}
+		return insert(Integer.toString(key));
+	}
+
+	// next entry position at or after p that is not a hole, used if there is none
+	final int nextLive(int p) {
+		if (!packed) {
+			while (p < used && keys[p] == null)
+				p++;
+		}
+		return p;
+	}
+
+	// the key stored at entry position p
+	final String keyAt(int p) {
+		return packed ? Integer.toString(p) : keys[p];
+	}
+
+	// squeeze out holes so the values sit at positions 0..N-1; after the
+	// subclass reorders them, renumber() makes the keys 0..N-1
+	final void compactForSort() {
+		if (!packed)
+			compact(false);
+	}
+
+	// give the entries keys 0..N-1 in their current order
+	final void renumber() {
+		packed = true;
+		index = null;
+		keys = null;
+		hashes = null;
+		used = N;
+	}
+
+	// resize the hash table to the given capacity
+	private void resize(int capacity) {
+		M = capacity;
+		int n = entryCapacity(M);
+		growValues(n);
+		if (packed)
+			return;
+		keys = Arrays.copyOf(keys, n);
+		hashes = Arrays.copyOf(hashes, n);
+		compact(true);
+	}
+
+	// move the live entries down over the holes, re-hashing them if reindex
+	private void compact(boolean reindex) {
+		int q = 0;
+		for (int p = 0; p < used; p++) {
+			if (keys[p] == null)
+				continue;
+			keys[q] = keys[p];
+			hashes[q] = hashes[p];
+			moveValue(p, q);
+			q++;
+		}
+		for (int p = q; p < used; p++) {
+			keys[p] = null;
+			clearValue(p);
+		}
+		used = q;
+		if (reindex)
+			rebuildIndex();
+	}
+
+	// switch from the packed layout to the hash layout
+	private void convertToHash() {
+		packed = false;
+		int n = entryCapacity(M);
+		keys = new String[n];
+		hashes = new int[n];
+		for (int p = 0; p < used; p++) {
+			keys[p] = Integer.toString(p);
+			hashes[p] = Hashing.spread(keys[p].hashCode());
+		}
+		rebuildIndex();
+	}
+
+	// re-hash every entry into a fresh index of size M
+	private void rebuildIndex() {
+		index = new int[M];
+		Arrays.fill(index, EMPTY);
+		for (int p = 0; p < used; p++) {
+			if (keys[p] == null)
+				continue;
+			int i;
+			for (i = hashes[p] & (M - 1); index[i] != EMPTY; i = (i + 1) & (M - 1)) {
+			}
+			index[i] = p;
+		}
+	}
+
+	// fill the slot i just emptied by moving later keys of its cluster back
+	private void shiftBack(int i) {
+		for (int j = (i + 1) & (M - 1); index[j] != EMPTY; j = (j + 1) & (M - 1)) {
+			int home = hashes[index[j]] & (M - 1);
+			if (Hashing.canShiftBack(home, i, j)) {
+				index[i] = index[j];
+				index[j] = EMPTY;
+				i = j;
+			}
+		}
+	}
+
+	// the index is never more than half full, so M / 2 + 1 entries always fit
+	static int entryCapacity(int size) {
+		return size / 2 + 1;
+	}
+}
@@ -0,0 +1,69 @@
+import java.util.*;
+
+/**  Lookup speed of CONTROL_BYTES probing against plain LINEAR probing.  Both
+ * tables hold the same keys; each is timed on get() of every key in shuffled
+ * order, then on get() of as many keys that are not there, which is where
+ * control bytes save the most equals() calls.  Run with
+ * --add-modules jdk.incubator.vector for the Vector API group match, without
+ * it for the scalar one.
+ *
+ * Usage: java ProbeBench [keys] [rounds]
+ */
+public class ProbeBench
+{
+	private static final PHPArray.Probing[] MODES = {PHPArray.Probing.LINEAR, PHPArray.Probing.CONTROL_BYTES};
+	private static volatile long sink; // keeps the lookups from being optimized away
+
+	public static void main(String [] args)
+	{
+		int n = args.length > 0 ? Integer.parseInt(args[0]) : 1 << 20;
+		int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+		String[] keys = new String[n];
+		String[] missing = new String[n];
+		for (int i = 0; i < n; i++)
+		{
+			keys[i] = "key-" + i;
+			missing[i] = "nokey-" + i;
+		}
+		String[] hits = keys.clone();
+		Collections.shuffle(Arrays.asList(hits), new Random(3));
+
+		System.out.println(n + " keys, best of " + rounds + " rounds, "
+				+ (vectorApi() ? "Vector API" : "scalar") + " group match");
+		System.out.printf("%14s %12s %12s%n", "probing", "hit", "miss");
+		for (PHPArray.Probing mode : MODES)
+		{
+			PHPArray<Integer> A = new PHPArray<Integer>(16, mode);
+			for (int i = 0; i < n; i++)
+				A.put(keys[i], i);
+			long hit = Long.MAX_VALUE, miss = Long.MAX_VALUE;
+			for (int r = 0; r < rounds; r++)
+			{
+				hit = Math.min(hit, lookups(A, hits));
+				miss = Math.min(miss, lookups(A, missing));
+			}
+			System.out.printf("%14s %9.1f ns %9.1f ns%n", mode, (double) hit / n, (double) miss / n);
+		}
+	}
+
+	// nanoseconds to get() every key in order
+	private static long lookups(PHPArray<Integer> A, String[] order)
+	{
+		long sum = 0;
+		long t = System.nanoTime();
+		for (String key : order)
+		{
+			Integer v = A.get(key);
+			if (v != null)
+				sum += v;
+		}
+		t = System.nanoTime() - t;
+		sink += sum;
+		return t;
+	}
+
+	private static boolean vectorApi()
+	{
+		return ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent();
+	}
+}
@@ -0,0 +1,189 @@
+import java.util.*;
+
+/**  Per-operation latency of PHPArray.put() across several doublings, with
+ * and without incremental resize, and a check that incremental resize keeps
+ * every put() under a stated bound.
+ *
+ * The puts that fill an empty array are timed RUNS times, and each put is
+ * charged the least it took in any run: work the put really does, such as
+ * copying or re-hashing the whole array, shows up in every run, while a
+ * garbage collection or the thread being descheduled rarely hits the same put
+ * twice.  For each doubling the table shows the put that started it and the
+ * longest put before the next one, which with incremental resize includes
+ * the puts that migrate the old index and fill the longer entry arrays.
+ *
+ * An incremental put() still allocates one of the longer arrays now and then,
+ * and the JVM zeroes it in time proportional to its length, so the bound is
+ * stated against that: no incremental put may take longer than the given
+ * factor, 2 unless given, times the least time to allocate an int[] as long
+ * as the index the last puts prepare for the next doubling, twice the final
+ * capacity.  The program fails with an AssertionError if one does.
+ * A put() that copied or re-hashed the whole array would take several times
+ * that.
+ *
+ * A churn phase then holds the size steady, putting a new key and unsetting
+ * the oldest, so that unset() holes fill the entry arrays and force
+ * compaction, and with tombstones, purges.  Those pauses are documented in
+ * PHPArray and only reported here.
+ *
+ * Usage: java ResizeLatency [keys] [factor]
+ */
+public class ResizeLatency
+{
+	private static final int WARMUP = 3;
+	private static final int RUNS = 5;
+	private static int[] held; // keeps the timed allocation from being optimized away
+
+	public static void main(String [] args)
+	{
+		int n = args.length > 0 ? Integer.parseInt(args[0]) : 1 << 21;
+		double factor = args.length > 1 ? Double.parseDouble(args[1]) : 2.0;
+		String[] keys = new String[2 * n];
+		for (int i = 0; i < keys.length; i++)
+			keys[i] = "key" + i;
+
+		for (int round = 0; round < WARMUP; round++)
+		{
+			grow(keys, n, false, new long[n], null);
+			grow(keys, n, true, new long[n], null);
+			churn(keys, n, false, false);
+			churn(keys, n, true, false);
+		}
+		List<int[]> doublings = new ArrayList<int[]>();
+		report(keys, n, false, new ArrayList<int[]>());
+		long worst = report(keys, n, true, doublings);
+		churn(keys, n, false, true);
+		churn(keys, n, true, true);
+
+		int capacity = 2 * doublings.get(doublings.size() - 1)[1];
+		long bound = (long) (factor * allocation(capacity));
+		System.out.printf("allocating an int[%d]: %.3f ms, bound %.3f ms%n", capacity, bound / factor / 1e6,
+				bound / 1e6);
+		if (worst > bound)
+			throw new AssertionError(String.format("an incremental put() took %.3f ms, over the %.3f ms bound",
+					worst / 1e6, bound / 1e6));
+		System.out.printf("ResizeLatency: every incremental put() within %.3f ms%n", bound / 1e6);
+	}
+
+	// the least time, over RUNS tries, to allocate an int[] of the given length
+	private static long allocation(int length)
+	{
+		long best = Long.MAX_VALUE;
+		for (int run = 0; run < RUNS; run++)
+		{
+			held = null;
+			long t = System.nanoTime();
+			held = new int[length];
+			best = Math.min(best, System.nanoTime() - t);
+		}
+		return best;
+	}
+
+	// time the puts of RUNS fills, print them and return the longest put;
+	// doublings receives the puts that doubled the table
+	private static long report(String[] keys, int n, boolean incremental, List<int[]> doublings)
+	{
+		long[] best = new long[n];
+		Arrays.fill(best, Long.MAX_VALUE);
+		for (int run = 0; run < RUNS; run++)
+		{
+			long[] times = new long[n];
+			grow(keys, n, incremental, times, run == 0 ? doublings : null);
+			for (int i = 0; i < n; i++)
+				best[i] = Math.min(best[i], times[i]);
+		}
+
+		System.out.println((incremental ? "incremental" : "stop-the-world") + " resize, " + n + " puts, least of "
+				+ RUNS + " runs");
+		System.out.printf("%12s %14s %14s%n", "to capacity", "doubling put", "worst after");
+		long worst = 0;
+		for (int d = 0; d < doublings.size(); d++)
+		{
+			int at = doublings.get(d)[0];
+			int end = d + 1 < doublings.size() ? doublings.get(d + 1)[0] : n;
+			long after = 0;
+			for (int i = at + 1; i < end; i++)
+				after = Math.max(after, best[i]);
+			System.out.printf("%12d %11.3f ms %11.3f ms%n", doublings.get(d)[1], best[at] / 1e6, after / 1e6);
+		}
+		for (long t : best)
+			worst = Math.max(worst, t);
+		summary(best);
+		return worst;
+	}
+
+	// put n new keys into an empty array, timing every put(); each put that
+	// doubles the table goes into doublings with the new capacity
+	private static void grow(String[] keys, int n, boolean incremental, long[] times, List<int[]> doublings)
+	{
+		PHPArray<Integer> A = new PHPArray<Integer>(4);
+		A.setIncrementalResize(incremental);
+		final int[] doubled = {-1};
+		A.setListener(new PHPArrayListener()
+		{
+			public void onResize(int size, int oldCapacity, int newCapacity)
+			{
+				doubled[0] = newCapacity;
+			}
+		});
+
+		for (int i = 0; i < n; i++)
+		{
+			long t = System.nanoTime();
+			A.put(keys[i], i);
+			times[i] = System.nanoTime() - t;
+			if (doubled[0] >= 0)
+			{
+				if (doublings != null)
+					doublings.add(new int[] {i, doubled[0]});
+				doubled[0] = -1;
+			}
+		}
+	}
+
+	// hold n keys while putting n more, unsetting the oldest after each put()
+	private static void churn(String[] keys, int n, boolean tombstones, boolean print)
+	{
+		PHPArray<Integer> A = new PHPArray<Integer>(4);
+		A.setIncrementalResize(true);
+		if (tombstones)
+			A.setDeletion(PHPArray.Deletion.TOMBSTONE);
+		for (int i = 0; i < n; i++)
+			A.put(keys[i], i);
+
+		long[] times = new long[n];
+		for (int i = 0; i < n; i++)
+		{
+			long t = System.nanoTime();
+			A.put(keys[n + i], i);
+			A.unset(keys[i]);
+			times[i] = System.nanoTime() - t;
+		}
+		if (!print)
+			return;
+
+		System.out.println("incremental resize, " + n + " put and unset pairs at steady size, "
+				+ (tombstones ? "tombstone" : "backward-shift") + " deletion");
+		summary(times);
+	}
+
+	private static void summary(long[] times)
+	{
+		long[] sorted = times.clone();
+		Arrays.sort(sorted);
+		int over = 0;
+		for (long t : times)
+		{
+			if (t >= 1000000)
+				over++;
+		}
+		System.out.printf("  p50 %.2f us, p99 %.2f us, p99.9 %.2f us, max %.3f ms, %d ops over 1 ms%n%n",
+				at(sorted, 0.50) / 1e3, at(sorted, 0.99) / 1e3, at(sorted, 0.999) / 1e3,
+				sorted[sorted.length - 1] / 1e6, over);
+	}
+
+	private static long at(long[] sorted, double q)
+	{
+		return sorted[Math.min(sorted.length - 1, (int) (q * sorted.length))];
+	}
+}
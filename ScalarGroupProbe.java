@@ -0,0 +1,37 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+
+// GroupProbe without SIMD instructions: reads the group as two longs and
+// compares their 8 bytes at once with bit tricks
+final class ScalarGroupProbe implements GroupProbe {
+	private static final VarHandle LONGS = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+	private static final long LOW = 0x0101010101010101L;
+	private static final long HIGH = 0x8080808080808080L;
+
+	public long match(byte[] ctrl, int i, byte b) {
+		long lo = (long) LONGS.get(ctrl, i);
+		long hi = (long) LONGS.get(ctrl, i + 8);
+		long hits = gather(equal(lo, b)) | gather(equal(hi, b)) << 8;
+		long empties = gather(empty(lo)) | gather(empty(hi)) << 8;
+		return hits | (empties << 32);
+	}
+
+	// high bit set in each byte of word equal to b; may also flag a byte just
+	// after a real match, which costs the caller one extra key comparison
+	private static long equal(long word, byte b) {
+		long x = word ^ (LOW * (b & 0xFF));
+		return (x - LOW) & ~x & HIGH;
+	}
+
+	// high bit set in each byte of word that is EMPTY (0x80): the only control
+	// byte with its high bit set and bit 1 clear
+	private static long empty(long word) {
+		return word & (~word << 6) & HIGH;
+	}
+
+	// move the high bit of byte k down to bit k
+	private static long gather(long bytes) {
+		return ((bytes >>> 7) * 0x0102040810204080L) >>> 56;
+	}
+}
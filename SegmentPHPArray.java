@@ -0,0 +1,378 @@
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+// The table shared by OffHeapPHPArray and MappedPHPArray.  String keys map to
+// a long or a byte[] (copied in and out), and everything lives in three
+// MemorySegments the subclass provides through resizeRegions():
+// - index: int per slot, the entry record stored there or NONE
+// - entries: fixed-size records with the key's hash, the insertion-order
+//   links, and where the key bytes and the value live
+// - data: UTF-8 key bytes and byte[] values, compacted when it fills up
+// Multi-byte fields are little-endian whatever the platform, so a mapped file
+// can move between machines.
+abstract class SegmentPHPArray implements Iterable<Object>, AutoCloseable {
+	static final int INIT_CAPACITY = 4;
+	static final int NONE = -1; // no entry record
+	static final int LONG_VALUE = -1; // VALUE_LEN of an entry holding a long
+
+	static final ValueLayout.OfInt INT = ValueLayout.JAVA_INT.withOrder(ByteOrder.LITTLE_ENDIAN);
+	static final ValueLayout.OfLong LONG = ValueLayout.JAVA_LONG.withOrder(ByteOrder.LITTLE_ENDIAN);
+	static final ValueLayout.OfByte BYTE = ValueLayout.JAVA_BYTE;
+
+	// byte offsets of the fields of an entry record
+	static final long HASH = 0; // int: spread hashCode() of the key
+	static final long PREV = 4; // int: previous record in insertion order
+	static final long NEXT = 8; // int: next record in insertion order, or on the free list
+	static final long KEY_LEN = 12; // int: bytes in the UTF-8 key
+	static final long KEY_OFF = 16; // long: offset of the key in data
+	static final long VALUE = 24; // long: the value, or its offset in data
+	static final long VALUE_LEN = 32; // int: bytes in a byte[] value, LONG_VALUE for a long
+	static final long ENTRY_BYTES = 40;
+
+	int N; // number of key-value pairs in the symbol table
+	int M; // size of linear probing table, always a power of two
+	int records; // entry records the entries segment can hold
+	int top; // entry records handed out so far
+	int free = NONE; // first record on the free list
+	int head = NONE; // first record in insertion order
+	int tail = NONE; // last record in insertion order
+	long dataUsed; // bytes of data handed out so far
+	long dataGarbage; // bytes of data no longer referenced
+	MemorySegment index, entries, data;
+	private int iter = NONE; // record each() returns next
+
+	// point index, entries and data at segments of the given sizes, none
+	// smaller than now; the first top records of entries and dataUsed bytes of
+	// data must survive, the index is refilled by the caller
+	abstract void resizeRegions(int slots, int entryRecords, long dataBytes);
+
+	// called before every change to the table
+	void modified() {
+	}
+
+	// release the segments
+	public abstract void close();
+
+	// set up an empty table of the given capacity, rounded up to a power of two
+	final void create(int capacity) {
+		int size = 1;
+		while (size < capacity)
+			size <<= 1;
+		M = size;
+		records = M / 2 + 1;
+		resizeRegions(M, records, 16L * records);
+		index.fill((byte) 0xFF);
+	}
+
+	// insert the key-value pair into the symbol table
+	public void put(String key, long val) {
+		int e = entryFor(key, 0);
+		releaseValue(e);
+		entries.set(LONG, base(e) + VALUE, val);
+		entries.set(INT, base(e) + VALUE_LEN, LONG_VALUE);
+	}
+
+	// insert the key and a copy of the bytes of val; a null val unsets the key
+	public void put(String key, byte[] val) {
+		if (val == null) {
+			unset(key);
+			return;
+		}
+		int e = entryFor(key, val.length);
+		releaseValue(e);
+		long off = allocateData(val.length);
+		MemorySegment.copy(val, 0, data, BYTE, off, val.length);
+		entries.set(LONG, base(e) + VALUE, off);
+		entries.set(INT, base(e) + VALUE_LEN, val.length);
+	}
+
+	// return the value associated with the given key as a Long or a byte[],
+	// null if no such value
+	public Object get(String key) {
+		int i = find(Hashing.spread(key.hashCode()), utf8(key));
+		return i < 0 ? null : valueOf(index.getAtIndex(INT, i));
+	}
+
+	// return the long stored under key, or missing if the key is absent or
+	// holds a byte[]
+	public long getLong(String key, long missing) {
+		int i = find(Hashing.spread(key.hashCode()), utf8(key));
+		if (i < 0)
+			return missing;
+		long b = base(index.getAtIndex(INT, i));
+		if (entries.get(INT, b + VALUE_LEN) != LONG_VALUE)
+			return missing;
+		return entries.get(LONG, b + VALUE);
+	}
+
+	// does a key-value pair with the given key exist in the symbol table?
+	public boolean contains(String key) {
+		return find(Hashing.spread(key.hashCode()), utf8(key)) >= 0;
+	}
+
+	// delete the key (and associated value) from the symbol table
+	public void unset(String key) {
+		int i = find(Hashing.spread(key.hashCode()), utf8(key));
+		if (i < 0)
+			return;
+		modified();
+		int e = index.getAtIndex(INT, i);
+		long b = base(e);
+		releaseValue(e);
+		dataGarbage += entries.get(INT, b + KEY_LEN);
+
+		// unlink the record and put it on the free list
+		int prev = entries.get(INT, b + PREV);
+		int next = entries.get(INT, b + NEXT);
+		if (prev == NONE)
+			head = next;
+		else
+			entries.set(INT, base(prev) + NEXT, next);
+		if (next == NONE)
+			tail = prev;
+		else
+			entries.set(INT, base(next) + PREV, prev);
+		if (iter == e)
+			iter = next;
+		entries.set(INT, b + NEXT, free);
+		free = e;
+
+		index.setAtIndex(INT, i, NONE);
+		shiftBack(i);
+		N--;
+	}
+
+	// return the number of key-value pairs
+	public int length() {
+		return N;
+	}
+
+	// returns an array list that contains all keys in insertion order
+	public ArrayList<String> keys() {
+		ArrayList<String> list = new ArrayList<String>(N);
+		for (int e = head; e != NONE; e = entries.get(INT, base(e) + NEXT))
+			list.add(keyOf(e));
+		return list;
+	}
+
+	// iterate over Pair objects in insertion order, null at the end
+	public PHPArray.Pair<Object> each() {
+		if (iter == NONE)
+			return null;
+		int e = iter;
+		iter = entries.get(INT, base(e) + NEXT);
+		return new PHPArray.Pair<Object>(keyOf(e), valueOf(e));
+	}
+
+	// reset the each() iteration to the first key
+	public void reset() {
+		iter = head;
+	}
+
+	// iterate over the values (Long or byte[]) in insertion order
+	public Iterator<Object> iterator() {
+		return new Iterator<Object>() {
+			private int current = head;
+
+			public boolean hasNext() {
+				return current != NONE;
+			}
+
+			public Object next() {
+				if (current == NONE)
+					throw new NoSuchElementException();
+				Object result = valueOf(current);
+				current = entries.get(INT, base(current) + NEXT);
+				return result;
+			}
+		};
+	}
+
+	// the entry record for key, linking a new one at the tail if key is not
+	// there yet; extra is the number of value bytes about to be stored
+	private int entryFor(String key, int extra) {
+		modified();
+		// double table size if 50% full
+		if (N >= M / 2)
+			resizeIndex(2 * M);
+
+		byte[] kb = utf8(key);
+		int h = Hashing.spread(key.hashCode());
+		int i = find(h, kb);
+		if (i >= 0)
+			return index.getAtIndex(INT, i);
+		i = ~i;
+
+		// reserve room for the key and value together, so compacting data
+		// can't happen between the two
+		reserveData(kb.length + (long) extra);
+		long keyOff = allocateData(kb.length);
+		MemorySegment.copy(kb, 0, data, BYTE, keyOff, kb.length);
+
+		int e = newRecord();
+		long b = base(e);
+		entries.set(INT, b + HASH, h);
+		entries.set(INT, b + PREV, tail);
+		entries.set(INT, b + NEXT, NONE);
+		entries.set(INT, b + KEY_LEN, kb.length);
+		entries.set(LONG, b + KEY_OFF, keyOff);
+		entries.set(INT, b + VALUE_LEN, LONG_VALUE);
+		if (tail == NONE)
+			head = e;
+		else
+			entries.set(INT, base(tail) + NEXT, e);
+		tail = e;
+		index.setAtIndex(INT, i, e);
+		N++;
+		iter = head;
+		return e;
+	}
+
+	// slot of the index holding the key with hash h and UTF-8 bytes kb, or if
+	// it is not there ~slot of the empty slot that ended the search
+	private int find(int h, byte[] kb) {
+		for (int i = h & (M - 1);; i = (i + 1) & (M - 1)) {
+			int e = index.getAtIndex(INT, i);
+			if (e == NONE)
+				return ~i;
+			if (entries.get(INT, base(e) + HASH) == h && keyEquals(e, kb))
+				return i;
+		}
+	}
+
+	private boolean keyEquals(int e, byte[] kb) {
+		long b = base(e);
+		if (entries.get(INT, b + KEY_LEN) != kb.length)
+			return false;
+		long off = entries.get(LONG, b + KEY_OFF);
+		for (int k = 0; k < kb.length; k++) {
+			if (data.get(BYTE, off + k) != kb[k])
+				return false;
+		}
+		return true;
+	}
+
+	// fill the slot i just emptied by moving later keys of its cluster back
+	private void shiftBack(int i) {
+		for (int j = (i + 1) & (M - 1);; j = (j + 1) & (M - 1)) {
+			int e = index.getAtIndex(INT, j);
+			if (e == NONE)
+				return;
+			int home = entries.get(INT, base(e) + HASH) & (M - 1);
+			if (Hashing.canShiftBack(home, i, j)) {
+				index.setAtIndex(INT, i, e);
+				index.setAtIndex(INT, j, NONE);
+				i = j;
+			}
+		}
+	}
+
+	// re-hash every entry into a new index of the given size
+	private void resizeIndex(int capacity) {
+		resizeRegions(capacity, records, data.byteSize());
+		M = capacity;
+		index.fill((byte) 0xFF);
+		for (int e = head; e != NONE; e = entries.get(INT, base(e) + NEXT)) {
+			int i;
+			for (i = entries.get(INT, base(e) + HASH) & (M - 1); index.getAtIndex(INT, i) != NONE; i = (i + 1) & (M - 1)) {
+			}
+			index.setAtIndex(INT, i, e);
+		}
+	}
+
+	// a free entry record, from the free list or by growing entries
+	private int newRecord() {
+		if (free != NONE) {
+			int e = free;
+			free = entries.get(INT, base(e) + NEXT);
+			return e;
+		}
+		if (top == records) {
+			resizeRegions(M, 2 * records, data.byteSize());
+			records *= 2;
+		}
+		return top++;
+	}
+
+	// hand out n bytes of data, making room for them first
+	private long allocateData(long n) {
+		reserveData(n);
+		long off = dataUsed;
+		dataUsed += n;
+		return off;
+	}
+
+	// make sure n more bytes fit in data, compacting or growing it if needed
+	private void reserveData(long n) {
+		if (dataUsed + n <= data.byteSize())
+			return;
+		long live = dataUsed - dataGarbage;
+		long size = data.byteSize();
+		while (live + n > size / 2)
+			size *= 2;
+
+		// gather every live key and value in a scratch segment, then copy
+		// them back to the start of data
+		try (Arena arena = Arena.ofConfined()) {
+			MemorySegment scratch = arena.allocate(Math.max(live, 1), 8);
+			long used = 0;
+			for (int e = head; e != NONE; e = entries.get(INT, base(e) + NEXT)) {
+				long b = base(e);
+				int len = entries.get(INT, b + KEY_LEN);
+				MemorySegment.copy(data, entries.get(LONG, b + KEY_OFF), scratch, used, len);
+				entries.set(LONG, b + KEY_OFF, used);
+				used += len;
+				len = entries.get(INT, b + VALUE_LEN);
+				if (len != LONG_VALUE) {
+					MemorySegment.copy(data, entries.get(LONG, b + VALUE), scratch, used, len);
+					entries.set(LONG, b + VALUE, used);
+					used += len;
+				}
+			}
+			dataUsed = 0;
+			if (size > data.byteSize())
+				resizeRegions(M, records, size);
+			MemorySegment.copy(scratch, 0, data, 0, used);
+			dataUsed = used;
+			dataGarbage = 0;
+		}
+	}
+
+	// count the byte[] value of record e as garbage before it is replaced
+	private void releaseValue(int e) {
+		int len = entries.get(INT, base(e) + VALUE_LEN);
+		if (len != LONG_VALUE)
+			dataGarbage += len;
+		entries.set(INT, base(e) + VALUE_LEN, LONG_VALUE);
+	}
+
+	private String keyOf(int e) {
+		long b = base(e);
+		byte[] kb = new byte[entries.get(INT, b + KEY_LEN)];
+		MemorySegment.copy(data, BYTE, entries.get(LONG, b + KEY_OFF), kb, 0, kb.length);
+		return new String(kb, StandardCharsets.UTF_8);
+	}
+
+	private Object valueOf(int e) {
+		long b = base(e);
+		int len = entries.get(INT, b + VALUE_LEN);
+		long value = entries.get(LONG, b + VALUE);
+		if (len == LONG_VALUE)
+			return value;
+		byte[] vb = new byte[len];
+		MemorySegment.copy(data, BYTE, value, vb, 0, len);
+		return vb;
+	}
+
+	static long base(int e) {
+		return e * ENTRY_BYTES;
+	}
+
+	private static byte[] utf8(String key) {
+		return key.getBytes(StandardCharsets.UTF_8);
+	}
+}
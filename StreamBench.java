@@ -0,0 +1,71 @@
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.ToLongFunction;
+import java.util.stream.Stream;
+
+/**  stream() against parallelStream() on the same PHPArray.  Two pipelines
+ * are timed: a plain sum of the values, which is bound by the walk over the
+ * entry arrays, and a sum of a hash mixed from each value, which gives every
+ * element some work to split.  An array with unset() holes is timed too,
+ * since the spliterator splits by entry position rather than by count.  The
+ * speedup depends on the common ForkJoinPool's parallelism.  The keys are
+ * 0..n-1, so both arrays stay packed and share their boxed values.
+ *
+ * 50M entries, the default, need a heap of about 3 GB: java -Xmx3g StreamBench
+ *
+ * Usage: java StreamBench [entries] [rounds]
+ */
+public class StreamBench
+{
+	public static void main(String [] args)
+	{
+		int n = args.length > 0 ? Integer.parseInt(args[0]) : 50000000;
+		int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+		PHPArray<Integer> dense = new PHPArray<Integer>(n);
+		PHPArray<Integer> holes = new PHPArray<Integer>(n);
+		for (int i = 0; i < n; i++)
+		{
+			Integer v = i;
+			dense.put(i, v);
+			holes.put(i, v);
+		}
+		for (int i = 0; i < n; i += 3)
+			holes.unset(i);
+
+		System.out.println(n + " entries, best of " + rounds + " rounds, common pool parallelism "
+				+ ForkJoinPool.getCommonPoolParallelism());
+		System.out.printf("%18s %14s %14s %9s%n", "pipeline", "sequential", "parallel", "speedup");
+		run("sum", dense, s -> s.mapToLong(Integer::longValue).sum(), rounds);
+		run("mixed hash", dense, s -> s.mapToLong(StreamBench::mix).sum(), rounds);
+		run("sum, 1/3 unset", holes, s -> s.mapToLong(Integer::longValue).sum(), rounds);
+	}
+
+	private static void run(String name, PHPArray<Integer> A, ToLongFunction<Stream<Integer>> pipeline, int rounds)
+	{
+		long sequential = Long.MAX_VALUE, parallel = Long.MAX_VALUE;
+		for (int round = 0; round < rounds; round++)
+		{
+			long t = System.nanoTime();
+			long expected = pipeline.applyAsLong(A.stream());
+			sequential = Math.min(sequential, System.nanoTime() - t);
+			t = System.nanoTime();
+			long result = pipeline.applyAsLong(A.parallelStream());
+			parallel = Math.min(parallel, System.nanoTime() - t);
+			if (result != expected)
+				throw new AssertionError(name + ": parallel " + result + ", sequential " + expected);
+		}
+		System.out.printf("%18s %11.1f ms %11.1f ms %8.2fx%n", name, sequential / 1e6, parallel / 1e6,
+				(double) sequential / parallel);
+	}
+
+	// a few rounds of a 64-bit mixer over v
+	private static long mix(int v)
+	{
+		long h = v;
+		for (int i = 0; i < 8; i++)
+		{
+			h ^= h >>> 33;
+			h *= 0xff51afd7ed558ccdL;
+		}
+		return h;
+	}
+}
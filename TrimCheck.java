@@ -0,0 +1,64 @@
+import java.util.*;
+
+/**  Reproducer for the trailing-hole trim in unset().  C2 in JDK 21.0.1 can
+ * compile a loop like
+ *
+ *	while (used > 0 && keys[used - 1] == null)
+ *		used--;
+ *
+ * into one that never ends once unset() is shared by two subclasses, as it is
+ * by IntPHPArray and DoublePHPArray.  With the field version this program
+ * hangs after a few hundred rounds (it finishes under -Xint); the trims now
+ * count down a local and store it once, and it finishes in well under a
+ * second.  PHPArray's trims are driven the same way.
+ */
+public class TrimCheck
+{
+	public static void main(String [] args)
+	{
+		int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 300;
+		Random r = new Random(5);
+		for (int round = 0; round < rounds; round++)
+		{
+			IntPHPArray A = new IntPHPArray(1 + r.nextInt(20));
+			DoublePHPArray D = new DoublePHPArray(1 + r.nextInt(20));
+			PHPArray<Integer> P = new PHPArray<Integer>(1 + r.nextInt(20));
+			int next = 0;
+			for (int op = 0; op < 2000; op++)
+			{
+				int c = r.nextInt(100);
+				if (c < 40)
+				{
+					A.put(next, op);
+					D.put(next, op);
+					P.put(next, op);
+					next++;
+				}
+				else if (c < 55)
+				{
+					String k = "s" + r.nextInt(100);
+					A.put(k, op);
+					D.put(k, op);
+					P.put(k, op);
+				}
+				else if (c < 75)
+				{
+					String k = r.nextBoolean() ? "s" + r.nextInt(100) : "" + r.nextInt(next + 2);
+					A.unset(k);
+					D.unset(k);
+					P.unset(k);
+				}
+				else if (c < 77)
+				{
+					List<String> ks = new ArrayList<String>();
+					for (int i = 0; i < 5; i++)
+						ks.add("" + r.nextInt(next + 2));
+					P.unsetAll(ks);
+				}
+			}
+			if (A.length() != D.length())
+				throw new AssertionError("round " + round + ": lengths differ");
+		}
+		System.out.println("TrimCheck: " + rounds + " rounds finished");
+	}
+}
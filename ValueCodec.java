@@ -0,0 +1,105 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+// Turns the values of a PHPArray into bytes for writeSnapshot() and back for
+// readSnapshot().  A codec whose values all take the same number of bytes says
+// so with fixedSize(), which saves storing a length in front of every value.
+public interface ValueCodec<V> {
+	// bytes write() puts for value
+	int size(V value);
+
+	// put value at the position of out, which has at least size(value) bytes left
+	void write(V value, ByteBuffer out);
+
+	// read a value that takes the next size bytes of in
+	V read(ByteBuffer in, int size);
+
+	// the size of every value, or -1 if it varies
+	default int fixedSize() {
+		return -1;
+	}
+
+	ValueCodec<Integer> INTEGER = new ValueCodec<Integer>() {
+		public int size(Integer value) {
+			return 4;
+		}
+
+		public void write(Integer value, ByteBuffer out) {
+			out.putInt(value);
+		}
+
+		public Integer read(ByteBuffer in, int size) {
+			return in.getInt();
+		}
+
+		public int fixedSize() {
+			return 4;
+		}
+	};
+
+	ValueCodec<Long> LONG = new ValueCodec<Long>() {
+		public int size(Long value) {
+			return 8;
+		}
+
+		public void write(Long value, ByteBuffer out) {
+			out.putLong(value);
+		}
+
+		public Long read(ByteBuffer in, int size) {
+			return in.getLong();
+		}
+
+		public int fixedSize() {
+			return 8;
+		}
+	};
+
+	ValueCodec<Double> DOUBLE = new ValueCodec<Double>() {
+		public int size(Double value) {
+			return 8;
+		}
+
+		public void write(Double value, ByteBuffer out) {
+			out.putDouble(value);
+		}
+
+		public Double read(ByteBuffer in, int size) {
+			return in.getDouble();
+		}
+
+		public int fixedSize() {
+			return 8;
+		}
+	};
+
+	// UTF-8, with ASCII strings copied a char at a time instead of encoded
+	ValueCodec<String> STRING = new ValueCodec<String>() {
+		public int size(String value) {
+			return isAscii(value) ? value.length() : value.getBytes(StandardCharsets.UTF_8).length;
+		}
+
+		public void write(String value, ByteBuffer out) {
+			if (!isAscii(value)) {
+				out.put(value.getBytes(StandardCharsets.UTF_8));
+				return;
+			}
+			for (int c = 0; c < value.length(); c++)
+				out.put((byte) value.charAt(c));
+		}
+
+		public String read(ByteBuffer in, int size) {
+			byte[] b = new byte[size];
+			in.get(b);
+			return new String(b, StandardCharsets.UTF_8);
+		}
+
+		private boolean isAscii(String s) {
+			for (int c = 0; c < s.length(); c++) {
+				if (s.charAt(c) >= 0x80)
+					return false;
+			}
+			return true;
+		}
+	};
+}
@@ -0,0 +1,16 @@
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.VectorSpecies;
+
+// GroupProbe that compares all the bytes of a group with one SIMD instruction
+// per comparison.  Needs --add-modules jdk.incubator.vector to compile and run;
+// GroupProbe.best() only loads this class when that module is present.
+final class VectorGroupProbe implements GroupProbe {
+	private static final VectorSpecies<Byte> SPECIES = ByteVector.SPECIES_128;
+
+	public long match(byte[] ctrl, int i, byte b) {
+		ByteVector group = ByteVector.fromArray(SPECIES, ctrl, i);
+		long hits = group.eq(b).toLong();
+		long empties = group.eq(EMPTY).toLong();
+		return hits | (empties << 32);
+	}
+}